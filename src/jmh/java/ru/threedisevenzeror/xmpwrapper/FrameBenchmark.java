@@ -0,0 +1,72 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rendering single frame and reading frame info
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+
+    @Param({ "Proxy", "Direct" })
+    public Xmp.Binding binding;
+
+    private Xmp xmp;
+
+    @Setup
+    public void setup() {
+        xmp = new Xmp(binding);
+        xmp.loadModule(TestModules.generate(8, 1));
+        xmp.startPlayer(44100);
+    }
+
+    @TearDown
+    public void tearDown() {
+        xmp.close();
+    }
+
+    @Benchmark
+    public boolean playFrame() {
+        return xmp.playFrame();
+    }
+
+    @Benchmark
+    public int playFrameAndGetCurrentFrame() {
+        xmp.playFrame();
+        return xmp.getCurrentFrame().getRow();
+    }
+
+    @Benchmark
+    public int playFrameAndGetFrameView() {
+        xmp.playFrame();
+        return xmp.getFrameView().getRow();
+    }
+
+    @Benchmark
+    public Xmp.FrameInfo getCurrentFrame() {
+        return xmp.getCurrentFrame();
+    }
+
+    @Benchmark
+    public int getFrameView() {
+        return xmp.getFrameView().getRow();
+    }
+}
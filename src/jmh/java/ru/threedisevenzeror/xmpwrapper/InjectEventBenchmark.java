@@ -0,0 +1,48 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of injecting single event into playing module
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectEventBenchmark {
+
+    private Xmp xmp;
+    private int note;
+
+    @Setup
+    public void setup() {
+        xmp = new Xmp();
+        xmp.loadModule(TestModules.generate(1, 1));
+        xmp.startPlayer(44100);
+    }
+
+    @TearDown
+    public void tearDown() {
+        xmp.close();
+    }
+
+    @Benchmark
+    public void injectEvent() {
+        note = (note + 1) % 48;
+        xmp.injectEvent(note & 3, 37 + note, 1, 64, 0, 0, 0, 0);
+    }
+}
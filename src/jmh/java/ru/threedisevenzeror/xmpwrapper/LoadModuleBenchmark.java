@@ -0,0 +1,83 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of loading module from different sources, each load is followed by release
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadModuleBenchmark {
+
+    @Param({ "1", "8", "32" })
+    public int patterns;
+
+    private Xmp xmp;
+    private byte[] module;
+    private File file;
+    private String path;
+
+    @Setup
+    public void setup() throws IOException {
+        xmp = new Xmp();
+        module = TestModules.generate(patterns, 1);
+        file = TestModules.writeTemp(module);
+        path = file.getAbsolutePath();
+    }
+
+    @TearDown
+    public void tearDown() {
+        xmp.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void loadFromPath() {
+        xmp.loadModule(path);
+        xmp.releaseModule();
+    }
+
+    @Benchmark
+    public void loadFromMappedFile() throws IOException {
+        xmp.loadModule(file);
+        xmp.releaseModule();
+    }
+
+    @Benchmark
+    public void loadFromBytes() {
+        xmp.loadModule(module);
+        xmp.releaseModule();
+    }
+
+    @Benchmark
+    public void loadFromStream() throws IOException {
+        xmp.loadModule(new ByteArrayInputStream(module));
+        xmp.releaseModule();
+    }
+
+    @Benchmark
+    public void loadFromStreamWithLength() throws IOException {
+        xmp.loadModule(new ByteArrayInputStream(module), module.length);
+        xmp.releaseModule();
+    }
+}
@@ -0,0 +1,64 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of marshalling module metadata
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModuleInfoBenchmark {
+
+    @Param({ "1", "32" })
+    public int patterns;
+
+    private Xmp xmp;
+
+    @Setup
+    public void setup() {
+        xmp = new Xmp();
+        xmp.loadModule(TestModules.generate(patterns, 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        xmp.close();
+    }
+
+    @Benchmark
+    public Xmp.ModuleInfo getModuleInfo() {
+        return xmp.getModuleInfo();
+    }
+
+    @Benchmark
+    public Xmp.Instrument[] getInstruments() {
+        return xmp.getModuleInfo().getModule().getInstruments();
+    }
+
+    @Benchmark
+    public Xmp.Sample[] getSamples() {
+        return xmp.getModuleInfo().getModule().getSamples();
+    }
+
+    @Benchmark
+    public int[] getOrders() {
+        return xmp.getModuleInfo().getModule().getOrders();
+    }
+}
@@ -0,0 +1,71 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering throughput, score multiplied by buffer size gives rendered bytes per second
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayBufferBenchmark {
+
+    @Param({ "1024", "8192", "65536" })
+    public int bufferSize;
+
+    @Param({ "22050", "44100", "48000" })
+    public int sampleRate;
+
+    @Param({ "Neareset", "Linear", "Spline" })
+    public Xmp.InterpolationType interpolation;
+
+    @Param({ "Proxy", "Direct" })
+    public Xmp.Binding binding;
+
+    private Xmp xmp;
+    private byte[] buffer;
+    private ByteBuffer directBuffer;
+
+    @Setup
+    public void setup() {
+        xmp = new Xmp(binding);
+        xmp.loadModule(TestModules.generate(8, 1));
+        xmp.startPlayer(sampleRate);
+        xmp.setInterpolationType(interpolation);
+        buffer = new byte[bufferSize];
+        directBuffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        xmp.close();
+    }
+
+    @Benchmark
+    public boolean playBuffer() {
+        return xmp.playBuffer(buffer, 0);
+    }
+
+    @Benchmark
+    public boolean playDirectBuffer() {
+        directBuffer.clear();
+        return xmp.playBuffer(directBuffer, 0);
+    }
+}
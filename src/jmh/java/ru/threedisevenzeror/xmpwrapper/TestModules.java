@@ -0,0 +1,136 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates small deterministic ProTracker modules, so benchmarks don't depend on external files
+ */
+final class TestModules {
+
+    // Small corpus, module lengths are chosen to cover short and long scans
+    static final int[] PATTERN_COUNTS = { 1, 8, 32 };
+
+    private static final int ROWS = 64;
+    private static final int CHANNELS = 4;
+    private static final int SAMPLES = 31;
+    private static final int SAMPLE_LENGTH = 4096;
+
+    private static final int[] PERIODS = {
+            856, 808, 762, 720, 678, 640, 604, 570, 538, 508, 480, 453, // C-1..B-1
+            428, 404, 381, 360, 339, 320, 302, 285, 269, 254, 240, 226, // C-2..B-2
+            214, 202, 190, 180, 170, 160, 151, 143, 135, 127, 120, 113  // C-3..B-3
+    };
+
+    private TestModules() {}
+
+    /**
+     * Generates 4 channel M.K. module, same seed gives same module
+     */
+    static byte[] generate(int patterns, long seed) {
+        Random random = new Random(seed);
+        int patternSize = ROWS * CHANNELS * 4;
+        byte[] module = new byte[1084 + patterns * patternSize + SAMPLES * SAMPLE_LENGTH];
+
+        writeString(module, 0, "bench " + patterns + "/" + seed, 20);
+
+        for(int i = 0; i < SAMPLES; i++) {
+            int offset = 20 + i * 30;
+            writeString(module, offset, "sample " + i, 22);
+            writeWord(module, offset + 22, SAMPLE_LENGTH / 2); // length in words
+            module[offset + 24] = 0; // finetune
+            module[offset + 25] = 64; // volume
+            writeWord(module, offset + 26, 0); // loop start
+            writeWord(module, offset + 28, SAMPLE_LENGTH / 2); // loop length
+        }
+
+        module[950] = (byte) patterns; // song length
+        module[951] = 127;
+        for(int i = 0; i < patterns; i++) {
+            module[952 + i] = (byte) i;
+        }
+        writeString(module, 1080, "M.K.", 4);
+
+        for(int p = 0; p < patterns; p++) {
+            for(int row = 0; row < ROWS; row++) {
+                for(int channel = 0; channel < CHANNELS; channel++) {
+                    int offset = 1084 + p * patternSize + (row * CHANNELS + channel) * 4;
+                    int sample = 0;
+                    int period = 0;
+                    int effect = 0;
+                    int param = 0;
+
+                    if(random.nextInt(3) == 0) {
+                        sample = 1 + random.nextInt(SAMPLES);
+                        period = PERIODS[random.nextInt(PERIODS.length)];
+                    }
+
+                    switch (random.nextInt(6)) {
+                        case 0: effect = 0x0; param = random.nextInt(256); break; // arpeggio
+                        case 1: effect = 0xA; param = 1 + random.nextInt(15); break; // volume slide
+                        case 2: effect = 0x4; param = random.nextInt(256); break; // vibrato
+                        default: break;
+                    }
+
+                    if(p == 0 && row == 0 && channel == 0) {
+                        effect = 0xF;
+                        param = 6; // speed
+                    }
+
+                    module[offset] = (byte) ((sample & 0xF0) | ((period >> 8) & 0x0F));
+                    module[offset + 1] = (byte) period;
+                    module[offset + 2] = (byte) (((sample & 0x0F) << 4) | effect);
+                    module[offset + 3] = (byte) param;
+                }
+            }
+        }
+
+        int dataOffset = 1084 + patterns * patternSize;
+        for(int i = 0; i < SAMPLES; i++) {
+            for(int j = 0; j < SAMPLE_LENGTH; j++) {
+                module[dataOffset + i * SAMPLE_LENGTH + j] = (byte) generateSample(i % 4, j, random);
+            }
+        }
+
+        return module;
+    }
+
+    /**
+     * Writes generated module to temporary file, deleted on exit
+     */
+    static File writeTemp(byte[] module) throws IOException {
+        File file = File.createTempFile("xmpbench", ".mod");
+        file.deleteOnExit();
+
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(module);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private static int generateSample(int waveform, int position, Random random) {
+        int phase = position & 63;
+        switch (waveform) {
+            case 0: return phase < 32 ? 100 : -100; // square
+            case 1: return phase * 4 - 128; // saw
+            case 2: return (int) (Math.sin(phase * Math.PI / 32) * 127); // sine
+            default: return random.nextInt(256) - 128; // noise
+        }
+    }
+
+    private static void writeString(byte[] data, int offset, String value, int length) {
+        for(int i = 0; i < length && i < value.length(); i++) {
+            data[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    private static void writeWord(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+}
@@ -1,13 +1,25 @@
 package ru.threedisevenzeror.xmpwrapper;
 
 import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,6 +29,9 @@ public class Xmp implements Closeable {
 
     private static final XmpNative lib = XmpNative.Instance;
 
+    // audio rendered and discarded while seeking is produced in chunks of this size
+    private static final int SKIP_BUFFER_SIZE = 16384;
+
     // sample format flags
     public static final int FORMAT_8BIT = (1 << 0); // Mix to 8-bit instead of 16
     public static final int FORMAT_UNSIGNED = (1 << 1); // Mix to unsigned samples
@@ -49,6 +64,12 @@ public class Xmp implements Closeable {
         Playing // Module playing
     }
 
+    // native binding types
+    public enum Binding {
+        Proxy, // Interface proxy from Native.loadLibrary
+        Direct // Direct mapping from Native.register, falls back to Proxy if unavailable
+    }
+
     // interpolation types
     public enum InterpolationType {
         Neareset, // Nearest neighbor
@@ -108,6 +129,17 @@ public class Xmp implements Closeable {
         int getLoopEnd();
         int getFlags();
         byte[] getSampleData();
+
+        /**
+         * Returns read-only view of native sample data in native byte order, without copying it.
+         * View is valid only until module is released, accessing it later may crash JVM
+         */
+        ByteBuffer getSampleBuffer();
+
+        /**
+         * Same as {@link #getSampleBuffer()}, for 16-bit samples
+         */
+        ShortBuffer getSampleShortBuffer();
     }
 
     public interface Pattern {
@@ -257,14 +289,39 @@ public class Xmp implements Closeable {
         Event getEvent();
     }
 
+    private static volatile Binding defaultBinding = Binding.Direct;
+
     private XmpNative.Context context;
     private XmpNative.ModuleInfo sharedModuleInfo = new XmpNative.ModuleInfo();
     private XmpNative.FrameInfo sharedFrame = new XmpNative.FrameInfo();
+    private XmpFrameView sharedFrameView;
+    private XmpModuleSnapshot moduleSnapshot;
+    private XmpSeekIndex seekIndex;
+    private Memory skipBuffer;
+    private final Memory sharedEvent = new Memory(XmpEventQueue.EVENT_SIZE);
+    private XmpEventQueue eventQueue;
+    private final boolean direct;
+    private XmpMetrics metrics;
+    private int playerSampleRate;
+    private int playerFrameSize;
+    // player parameters changed by setParam, bit per parameter code
+    private int changedParams;
+    private int unrestorableParams;
+    private final int[] originalParams = new int[32];
 
     public Xmp() {
+        this(defaultBinding);
+    }
+
+    public Xmp(Binding binding) {
+        direct = binding == Binding.Direct && XmpDirect.Available;
         context = lib.xmp_create_context();
     }
 
+    public Binding getBinding() {
+        return direct ? Binding.Direct : Binding.Proxy;
+    }
+
     @Override
     protected void finalize() throws Throwable {
         close();
@@ -281,22 +338,159 @@ public class Xmp implements Closeable {
         }
     }
 
+    public boolean isClosed() {
+        return context == null;
+    }
+
     public void loadModule(String path) {
-        checkError(lib.xmp_load_module(context, path));
+        long start = startTiming();
+        int status = lib.xmp_load_module(context, path);
+        endTiming(XmpMetrics.Call.LoadModule, start);
+        moduleSnapshot = null;
+        seekIndex = null;
+        checkError(status);
     }
 
     public void loadModule(byte[] module) {
-        checkError(lib.xmp_load_module_from_memory(context, module, new NativeLong(module.length)));
+        long start = startTiming();
+        int status = lib.xmp_load_module_from_memory(context, module, new NativeLong(module.length));
+        endTiming(XmpMetrics.Call.LoadModule, start);
+        moduleSnapshot = null;
+        seekIndex = null;
+        checkError(status);
     }
 
     public void loadModule(InputStream stream) throws IOException {
+        loadModule(readStream(stream));
+    }
+
+    /**
+     * Reads exactly length bytes from stream straight into native memory and loads module from there
+     */
+    public void loadModule(InputStream stream, int length) throws IOException {
+        Memory memory = new Memory(Math.max(1, length));
+        ByteBuffer target = memory.getByteBuffer(0, length);
+        ReadableByteChannel channel = Channels.newChannel(stream);
+
+        while(target.hasRemaining()) {
+            if(channel.read(target) < 0) {
+                throw new EOFException("Expected " + length + " bytes, got " + target.position());
+            }
+        }
+
+        loadModule(memory, length);
+    }
+
+    /**
+     * Maps file into memory and loads module directly from mapped pages, without copying it to java heap
+     */
+    public void loadModule(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            loadModule(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Loads module from remaining part of direct buffer, for example mapped file
+     */
+    public void loadModule(ByteBuffer module) {
+        Pointer pointer = getDirectPointer(module);
+        loadModule(module.position() == 0 ? pointer : pointer.share(module.position()), module.remaining());
+    }
+
+    /**
+     * Loads module from native memory, memory can be freed after this call returns
+     */
+    public void loadModule(Pointer module, long length) {
+        long start = startTiming();
+        int status = lib.xmp_load_module_from_memory(context, module, new NativeLong(length));
+        endTiming(XmpMetrics.Call.LoadModule, start);
+        moduleSnapshot = null;
+        seekIndex = null;
+        checkError(status);
+    }
+
+    /**
+     * Loads module without sample data, captures its metadata and releases it right away.
+     * Module which is already loaded is released first.
+     * Sample memory which wasn't allocated is reported by {@link XmpModuleSnapshot#getSampleDataSize()}
+     */
+    public XmpModuleSnapshot loadModuleMetadataOnly(String path) {
+        int flags = beginMetadataLoad();
+        XmpModuleSnapshot snapshot;
+        try {
+            loadModule(path);
+            snapshot = getModuleSnapshot();
+        } finally {
+            endMetadataLoad(flags);
+        }
+        return snapshot;
+    }
+
+    public XmpModuleSnapshot loadModuleMetadataOnly(byte[] module) {
+        int flags = beginMetadataLoad();
+        XmpModuleSnapshot snapshot;
+        try {
+            loadModule(module);
+            snapshot = getModuleSnapshot();
+        } finally {
+            endMetadataLoad(flags);
+        }
+        return snapshot;
+    }
+
+    public XmpModuleSnapshot loadModuleMetadataOnly(File file) throws IOException {
+        int flags = beginMetadataLoad();
+        XmpModuleSnapshot snapshot;
+        try {
+            loadModule(file);
+            snapshot = getModuleSnapshot();
+        } finally {
+            endMetadataLoad(flags);
+        }
+        return snapshot;
+    }
+
+    public XmpModuleSnapshot loadModuleMetadataOnly(ByteBuffer module) {
+        int flags = beginMetadataLoad();
+        XmpModuleSnapshot snapshot;
+        try {
+            loadModule(module);
+            snapshot = getModuleSnapshot();
+        } finally {
+            endMetadataLoad(flags);
+        }
+        return snapshot;
+    }
+
+    // sample control flags can be changed only while no module is loaded
+    private int beginMetadataLoad() {
+        if(getPlayerState() != State.Unloaded) {
+            endPlayer();
+            releaseModule();
+        }
+        int flags = getParam(Parameter.SampleControlFlags);
+        setParam(Parameter.SampleControlFlags, flags | XMP_SMPCTL_SKIP);
+        return flags;
+    }
+
+    private void endMetadataLoad(int flags) {
+        releaseModule();
+        setParam(Parameter.SampleControlFlags, flags);
+    }
+
+    static byte[] readStream(InputStream stream) throws IOException {
         byte[] buffer = new byte[16384];
         ByteArrayOutputStream result = new ByteArrayOutputStream();
         int readed;
         while ((readed = stream.read(buffer)) > 0) {
             result.write(buffer, 0, readed);
         }
-        loadModule(result.toByteArray());
+        return result.toByteArray();
     }
 
     public void setInstrumentPath(String path) {
@@ -304,7 +498,11 @@ public class Xmp implements Closeable {
     }
 
     public void scanModule() {
+        long start = startTiming();
         lib.xmp_scan_module(context);
+        endTiming(XmpMetrics.Call.ScanModule, start);
+        moduleSnapshot = null;
+        seekIndex = null;
     }
 
     public ModuleInfo getModuleInfo() {
@@ -312,12 +510,39 @@ public class Xmp implements Closeable {
         return sharedModuleInfo;
     }
 
+    /**
+     * Returns immutable metadata of loaded module, it is read once and cached until module is released or reloaded
+     */
+    public XmpModuleSnapshot getModuleSnapshot() {
+        if(moduleSnapshot == null) {
+            lib.xmp_get_module_info(context, sharedModuleInfo);
+            if(sharedModuleInfo.mod == null) {
+                throw new IllegalStateException("Module is not loaded");
+            }
+            moduleSnapshot = new XmpModuleSnapshot(sharedModuleInfo);
+        }
+        return moduleSnapshot;
+    }
+
+    /**
+     * Reads note data of all patterns of loaded module in bulk, see {@link XmpPatternData}
+     */
+    public XmpPatternData getPatternData() {
+        lib.xmp_get_module_info(context, sharedModuleInfo);
+        if(sharedModuleInfo.mod == null) {
+            throw new IllegalStateException("Module is not loaded");
+        }
+        return XmpPatternData.read(sharedModuleInfo.mod);
+    }
+
     public void startPlayer(int sampleRate) {
         startPlayer(sampleRate, 0);
     }
 
     public void startPlayer(int sampleRate, int format) {
         checkError(lib.xmp_start_player(context, sampleRate, format));
+        playerSampleRate = sampleRate;
+        playerFrameSize = getFrameSize(format);
     }
 
     public void stopModule() {
@@ -329,42 +554,169 @@ public class Xmp implements Closeable {
     }
 
     public void muteChannel(int channel, boolean mute) {
-        checkError(lib.xmp_channel_mute(context, channel, mute ? 1 : 0));
+        checkError(channelMute(channel, mute ? 1 : 0));
     }
 
     public boolean isChannelMuted(int channel) {
-        return checkError(lib.xmp_channel_mute(context, channel, -1)) == 1;
+        return checkError(channelMute(channel, -1)) == 1;
     }
 
     public void setChannelVolume(int channel, int volume) {
-        checkError(lib.xmp_channel_vol(context, channel, volume));
+        checkError(channelVolume(channel, volume));
     }
 
     public int getChannelVolume(int channel) {
-        return checkError(lib.xmp_channel_vol(context, channel, -1));
+        return checkError(channelVolume(channel, -1));
     }
 
-    public boolean playFrame() {
-        int status = lib.xmp_play_frame(context);
+    private int channelMute(int channel, int operationFlag) {
+        return direct
+                ? XmpDirect.xmp_channel_mute(context, channel, operationFlag)
+                : lib.xmp_channel_mute(context, channel, operationFlag);
+    }
 
-        if(status >= 0) {
-            return true;
-        } else if(status == XmpNative.XMP_END) {
-            return false;
-        }
+    private int channelVolume(int channel, int volume) {
+        return direct
+                ? XmpDirect.xmp_channel_vol(context, channel, volume)
+                : lib.xmp_channel_vol(context, channel, volume);
+    }
 
-        checkError(status);
-        return false;
+    public boolean playFrame() {
+        flushEvents();
+        long start = startTiming();
+        int status = direct
+                ? XmpDirect.xmp_play_frame(context)
+                : lib.xmp_play_frame(context);
+        endTiming(XmpMetrics.Call.PlayFrame, start);
+
+        return checkPlayStatus(status);
     }
 
     public FrameInfo getCurrentFrame() {
-        lib.xmp_get_frame_info(context, sharedFrame);
+        if(direct) {
+            XmpDirect.xmp_get_frame_info(context, sharedFrame);
+        } else {
+            lib.xmp_get_frame_info(context, sharedFrame);
+        }
         return sharedFrame;
     }
 
+    /**
+     * Same as {@link #getCurrentFrame()}, but fields are read from native memory only when accessed,
+     * and only first {@link FrameInfo#getVirtualChannelsCount()} channels are exposed.
+     * Returned object is reused and updated by each call
+     */
+    public FrameInfo getFrameView() {
+        if(sharedFrameView == null) {
+            sharedFrameView = new XmpFrameView();
+        }
+
+        if(direct) {
+            XmpDirect.xmp_get_frame_info(context, sharedFrameView.getMemory());
+        } else {
+            lib.xmp_get_frame_info(context, sharedFrameView.getMemory());
+        }
+        return sharedFrameView;
+    }
+
     public boolean playBuffer(byte[] buffer, int loopCount) {
-        int status = lib.xmp_play_buffer(context, buffer, buffer.length, loopCount);
+        flushEvents();
+        long start = startTiming();
+        int status = direct
+                ? XmpDirect.xmp_play_buffer(context, buffer, buffer.length, loopCount)
+                : lib.xmp_play_buffer(context, buffer, buffer.length, loopCount);
+        endRenderTiming(buffer.length, start);
+
+        return checkPlayStatus(status);
+    }
+
+    /**
+     * Renders directly into remaining part of direct buffer, without copying through java heap.
+     * Buffer position is advanced to its limit
+     */
+    public boolean playBuffer(ByteBuffer buffer, int loopCount) {
+        int position = buffer.position();
+        int length = buffer.remaining();
+        boolean result = playBuffer(getWritablePointer(buffer), position, length, loopCount);
+        buffer.position(buffer.limit());
+        return result;
+    }
+
+    /**
+     * Renders directly into remaining part of direct buffer, without copying through java heap.
+     * Buffer position is advanced to its limit
+     */
+    public boolean playBuffer(ShortBuffer buffer, int loopCount) {
+        int position = buffer.position();
+        int length = buffer.remaining();
+        boolean result = playBuffer(getWritablePointer(buffer), position * 2L, length * 2, loopCount);
+        buffer.position(buffer.limit());
+        return result;
+    }
+
+    /**
+     * Renders length bytes directly into native memory at specified offset
+     */
+    public boolean playBuffer(Pointer memory, long offset, int length, int loopCount) {
+        if(memory instanceof Memory && offset + length > ((Memory) memory).size()) {
+            throw new IndexOutOfBoundsException("Buffer too small: " + (offset + length));
+        }
+
+        Pointer target = offset == 0 ? memory : memory.share(offset);
+        flushEvents();
+        long start = startTiming();
+        int status = direct
+                ? XmpDirect.xmp_play_buffer(context, target, length, loopCount)
+                : lib.xmp_play_buffer(context, target, length, loopCount);
+        endRenderTiming(length, start);
+
+        return checkPlayStatus(status);
+    }
 
+    /**
+     * Renders into all free space of ring buffer, should be called only from its producer thread.
+     * Returns true without rendering if ring buffer is full
+     */
+    public boolean playBuffer(XmpRingBuffer ring, int loopCount) {
+        int frameSize = playerFrameSize > 0 ? playerFrameSize : getFrameSize(0);
+
+        // free space can wrap around the end of buffer
+        for(int i = 0; i < 2; i++) {
+            int region = ring.getWritableRegion();
+            region -= region % frameSize;
+
+            if(region == 0) {
+                break;
+            }
+
+            if(!playBuffer(ring.getMemory(), ring.getWriteOffset(), region, loopCount)) {
+                return false;
+            }
+            ring.commitWrite(region);
+        }
+
+        return true;
+    }
+
+    /**
+     * Read-only buffers are rejected, rendering into them would either crash on read-only mapped pages
+     * or silently modify memory shared with read-only view
+     */
+    private static Pointer getWritablePointer(Buffer buffer) {
+        if(buffer.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        return getDirectPointer(buffer);
+    }
+
+    private static Pointer getDirectPointer(Buffer buffer) {
+        if(!buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer is not direct");
+        }
+        return Native.getDirectBufferPointer(buffer);
+    }
+
+    private static boolean checkPlayStatus(int status) {
         if(status >= 0) {
             return true;
         } else if(status == XmpNative.XMP_END) {
@@ -392,7 +744,70 @@ public class Xmp implements Closeable {
     }
 
     public int seekTime(int miliseconds) {
-        return checkError(lib.xmp_seek_time(context, miliseconds));
+        long start = startTiming();
+        int status = lib.xmp_seek_time(context, miliseconds);
+        endTiming(XmpMetrics.Call.SeekTime, start);
+        return checkError(status);
+    }
+
+    /**
+     * Seeks to exact time, unlike {@link #seekTime(int)}, which lands on start of order position.
+     * Player jumps to nearest preceding keyframe of seek index and renders only remaining part,
+     * next playBuffer call continues exactly from specified time
+     *
+     * @return position which is playing at specified time
+     */
+    public int seekExact(int milliseconds) {
+        XmpSeekIndex index = getSeekIndex();
+        int keyframe = index.findKeyframe(milliseconds);
+        if(keyframe < 0) {
+            throw new IllegalStateException("Module has no seekable positions");
+        }
+
+        setPosition(index.getPosition(keyframe));
+        resetBuffer();
+
+        int frameSize = playerFrameSize > 0 ? playerFrameSize : getFrameSize(0);
+        long remaining = (long) (milliseconds - index.getTime(keyframe)) * playerSampleRate / 1000 * frameSize;
+        if(remaining > 0) {
+            if(skipBuffer == null) {
+                skipBuffer = new Memory(SKIP_BUFFER_SIZE);
+            }
+
+            int chunk = SKIP_BUFFER_SIZE - SKIP_BUFFER_SIZE % frameSize;
+            while(remaining > 0) {
+                int length = (int) Math.min(chunk, remaining);
+                if(!playBuffer(skipBuffer, 0, length, 0)) {
+                    break;
+                }
+                remaining -= length;
+            }
+        }
+
+        int entry = index.findEntry(milliseconds);
+        return entry >= 0 ? index.getPosition(entry) : index.getPosition(keyframe);
+    }
+
+    /**
+     * Returns seek index of loaded module, building it on first call.
+     * Building plays module through once and restarts it, so it is better done right after {@link #startPlayer(int)}
+     */
+    public XmpSeekIndex getSeekIndex() {
+        if(seekIndex == null) {
+            seekIndex = XmpSeekIndex.build(this);
+        }
+        return seekIndex;
+    }
+
+    /**
+     * Drops audio which playBuffer rendered ahead, so next call starts from current player position
+     */
+    void resetBuffer() {
+        if(direct) {
+            XmpDirect.xmp_play_buffer(context, (Pointer) null, 0, 0);
+        } else {
+            lib.xmp_play_buffer(context, (Pointer) null, 0, 0);
+        }
     }
 
     public void endPlayer() {
@@ -400,6 +815,8 @@ public class Xmp implements Closeable {
     }
 
     public void releaseModule() {
+        moduleSnapshot = null;
+        seekIndex = null;
         lib.xmp_release_module(context);
     }
 
@@ -420,24 +837,146 @@ public class Xmp implements Closeable {
     public void injectEvent(int channel, int note, int instrument, int volume,
                             int primaryEffect,  int primaryEffectParams,
                             int secondaryEffect, int secondaryEffectParams) {
-        XmpNative.Event event = new XmpNative.Event();
-        event.note = new XmpNative.UnsignedChar(note);
-        event.ins = new XmpNative.UnsignedChar(instrument);
-        event.vol = new XmpNative.UnsignedChar(volume);
-        event.fxt = new XmpNative.UnsignedChar(primaryEffect);
-        event.fxp = new XmpNative.UnsignedChar(primaryEffectParams);
-        event.f2t = new XmpNative.UnsignedChar(secondaryEffect);
-        event.f2p = new XmpNative.UnsignedChar(secondaryEffectParams);
-        event._flag = new XmpNative.UnsignedChar(0);
-        lib.xmp_inject_event(context, channel, event);
+        sharedEvent.setByte(0, (byte) note);
+        sharedEvent.setByte(1, (byte) instrument);
+        sharedEvent.setByte(2, (byte) volume);
+        sharedEvent.setByte(3, (byte) primaryEffect);
+        sharedEvent.setByte(4, (byte) primaryEffectParams);
+        sharedEvent.setByte(5, (byte) secondaryEffect);
+        sharedEvent.setByte(6, (byte) secondaryEffectParams);
+        sharedEvent.setByte(7, (byte) 0);
+        injectSharedEvent(channel);
+    }
+
+    void injectEvent(int channel, byte[] events, int offset) {
+        sharedEvent.write(0, events, offset, XmpEventQueue.EVENT_SIZE);
+        injectSharedEvent(channel);
+    }
+
+    private void injectSharedEvent(int channel) {
+        if(direct) {
+            XmpDirect.xmp_inject_event(context, channel, sharedEvent);
+        } else {
+            lib.xmp_inject_event(context, channel, sharedEvent);
+        }
+    }
+
+    /**
+     * Attaches queue, its events are injected right before each playFrame and playBuffer call.
+     * Null detaches current queue
+     */
+    public void setEventQueue(XmpEventQueue queue) {
+        this.eventQueue = queue;
+    }
+
+    public XmpEventQueue getEventQueue() {
+        return eventQueue;
+    }
+
+    /**
+     * Injects events from attached queue now, instead of waiting for next frame.
+     * At most one event per channel is injected, see {@link XmpEventQueue}
+     */
+    public int flushEvents() {
+        return eventQueue != null ? eventQueue.flush(this) : 0;
     }
 
     private void setParam(int param, int value) {
-        checkError(lib.xmp_set_player(context, param, value));
+        // first change of each parameter remembers its original value, so resetState() can restore it
+        int bit = 1 << param;
+        int original = 0;
+        if((changedParams & bit) == 0) {
+            original = direct
+                    ? XmpDirect.xmp_get_player(context, param)
+                    : lib.xmp_get_player(context, param);
+        }
+
+        checkError(direct
+                ? XmpDirect.xmp_set_player(context, param, value)
+                : lib.xmp_set_player(context, param, value));
+
+        // parameter which wasn't set is left as it was, so it isn't recorded
+        if((changedParams & bit) == 0) {
+            if(original >= 0) {
+                originalParams[param] = original;
+            } else {
+                unrestorableParams |= bit;
+            }
+            changedParams |= bit;
+        }
+    }
+
+    /**
+     * Restores context to state of newly created one, so it can be reused by other owner:
+     * player is stopped, module released, event queue and metrics detached, changed player parameters restored.
+     * libxmp allows to change most parameters only while playing, so they can't be restored after player is ended
+     *
+     * @return false if some parameters couldn't be restored, such context shouldn't be reused
+     */
+    boolean resetState() {
+        eventQueue = null;
+        metrics = null;
+
+        // parameters which can be set only while playing are restored first,
+        // sample control and default pan can be set only without loaded module
+        restoreParams();
+        endPlayer();
+        releaseModule();
+        restoreParams();
+
+        boolean restored = changedParams == 0 && unrestorableParams == 0;
+        changedParams = 0;
+        unrestorableParams = 0;
+        return restored;
+    }
+
+    private void restoreParams() {
+        for(int param = 0; param < originalParams.length; param++) {
+            int bit = 1 << param;
+            if((changedParams & bit) == 0 || (unrestorableParams & bit) != 0) {
+                continue;
+            }
+
+            int status = direct
+                    ? XmpDirect.xmp_set_player(context, param, originalParams[param])
+                    : lib.xmp_set_player(context, param, originalParams[param]);
+            if(status >= 0) {
+                changedParams &= ~bit;
+            }
+        }
     }
 
     private int getParam(int param) {
-        return checkError(lib.xmp_get_player(context, param));
+        return checkError(direct
+                ? XmpDirect.xmp_get_player(context, param)
+                : lib.xmp_get_player(context, param));
+    }
+
+    /**
+     * Attaches metrics which record native call latencies of this context, null disables recording
+     */
+    public void setMetrics(XmpMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public XmpMetrics getMetrics() {
+        return metrics;
+    }
+
+    private long startTiming() {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    private void endTiming(XmpMetrics.Call call, long start) {
+        if(metrics != null) {
+            metrics.record(call, System.nanoTime() - start);
+        }
+    }
+
+    private void endRenderTiming(int bytes, long start) {
+        if(metrics != null && playerFrameSize > 0) {
+            metrics.recordRender(System.nanoTime() - start, bytes / playerFrameSize, playerSampleRate);
+        }
     }
 
     public void setInterpolationType(InterpolationType type) {
@@ -456,10 +995,58 @@ public class Xmp implements Closeable {
 
     public static TestInfo testModule(String path) {
         XmpNative.TestInfo info = new XmpNative.TestInfo();
-        checkError(lib.xmp_test_module(path, info));
+        checkError(testModule(path, info));
+        return info;
+    }
+
+    /**
+     * Same as {@link #testModule(String)}, but reuses info structure and returns libxmp status instead of throwing
+     */
+    static int testModule(String path, XmpNative.TestInfo info) {
+        return lib.xmp_test_module(path, info);
+    }
+
+    /**
+     * Tests module in remaining part of direct buffer, for example mapped file.
+     * libxmp can't depack modules in memory, packed modules can only be tested by path
+     */
+    public static TestInfo testModule(ByteBuffer module) {
+        XmpNative.TestInfo info = new XmpNative.TestInfo();
+        checkError(testModule(module, info));
         return info;
     }
 
+    /**
+     * Same as {@link #testModule(ByteBuffer)}, but reuses info structure and returns libxmp status instead of throwing
+     */
+    static int testModule(ByteBuffer module, XmpNative.TestInfo info) {
+        Pointer pointer = getDirectPointer(module);
+        if(module.position() != 0) {
+            pointer = pointer.share(module.position());
+        }
+        return lib.xmp_test_module_from_memory(pointer, new NativeLong(module.remaining()), info);
+    }
+
+    /**
+     * Returns size in bytes of one sample frame rendered with specified format flags
+     */
+    public static int getFrameSize(int format) {
+        int sampleSize = (format & FORMAT_8BIT) != 0 ? 1 : 2;
+        int channels = (format & FORMAT_MONO) != 0 ? 1 : 2;
+        return sampleSize * channels;
+    }
+
+    /**
+     * Sets binding used by contexts created with {@link #Xmp()}
+     */
+    public static void setDefaultBinding(Binding binding) {
+        defaultBinding = binding;
+    }
+
+    public static Binding getDefaultBinding() {
+        return defaultBinding;
+    }
+
     public static String[] getFormatList() {
         return lib.xmp_get_format_list();
     }
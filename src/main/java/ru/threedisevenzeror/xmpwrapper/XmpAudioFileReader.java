@@ -0,0 +1,233 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.sound.sampled.spi.AudioFileReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Java Sound provider, allows to open any module supported by libxmp with AudioSystem.getAudioInputStream()
+ */
+public class XmpAudioFileReader extends AudioFileReader {
+
+    public static final int SAMPLE_RATE = 44100;
+    public static final int FORMAT = 0;
+    public static final int LOOP_COUNT = 1;
+
+    // Streams of unknown modules are reset, so other providers can read them
+    private static final int MAX_MODULE_SIZE = 64 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 16384;
+    // Only header is read from streams which aren't modules, it is enough for libxmp format tests
+    private static final int HEADER_SIZE = 65536;
+
+    @Override
+    public AudioFileFormat getAudioFileFormat(File file) throws UnsupportedAudioFileException, IOException {
+        Xmp.TestInfo info;
+
+        try {
+            info = Xmp.testModule(file.getAbsolutePath());
+        } catch (RuntimeException e) {
+            throw unsupported(e);
+        } catch (Error e) {
+            throw unsupported(e);
+        }
+
+        return createFileFormat(info.getType(), info.getName(), getExtension(file.getName()));
+    }
+
+    @Override
+    public AudioFileFormat getAudioFileFormat(URL url) throws UnsupportedAudioFileException, IOException {
+        InputStream stream = url.openStream();
+        Xmp xmp;
+        try {
+            xmp = loadModule(readModule(stream));
+        } finally {
+            stream.close();
+        }
+
+        try {
+            return getFileFormat(xmp, getExtension(url.getPath()));
+        } finally {
+            xmp.close();
+        }
+    }
+
+    @Override
+    public AudioFileFormat getAudioFileFormat(InputStream stream) throws UnsupportedAudioFileException, IOException {
+        // stream is reset, so it can be read again after format is known, unknown streams are reset by loadModule
+        Xmp xmp = loadModule(stream);
+        AudioFileFormat format;
+        try {
+            format = getFileFormat(xmp, "");
+        } finally {
+            xmp.close();
+        }
+
+        stream.reset();
+        return format;
+    }
+
+    @Override
+    public AudioInputStream getAudioInputStream(File file) throws UnsupportedAudioFileException, IOException {
+        Xmp xmp = new Xmp();
+        try {
+            xmp.loadModule(file.getAbsolutePath());
+        } catch (RuntimeException e) {
+            xmp.close();
+            throw unsupported(e);
+        } catch (Error e) {
+            xmp.close();
+            throw unsupported(e);
+        }
+        return createStream(xmp);
+    }
+
+    @Override
+    public AudioInputStream getAudioInputStream(URL url) throws UnsupportedAudioFileException, IOException {
+        InputStream stream = url.openStream();
+        try {
+            return createStream(loadModule(readModule(stream)));
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public AudioInputStream getAudioInputStream(InputStream stream) throws UnsupportedAudioFileException, IOException {
+        return createStream(loadModule(stream));
+    }
+
+    private static AudioInputStream createStream(Xmp xmp) {
+        return new XmpAudioInputStream(xmp, SAMPLE_RATE, FORMAT, LOOP_COUNT, true);
+    }
+
+    private static Xmp loadModule(InputStream stream) throws UnsupportedAudioFileException, IOException {
+        if(!stream.markSupported()) {
+            throw new UnsupportedAudioFileException("Stream should support mark/reset");
+        }
+
+        stream.mark(MAX_MODULE_SIZE + READ_BUFFER_SIZE);
+
+        try {
+            return loadModule(readModule(stream));
+        } catch (UnsupportedAudioFileException e) {
+            try {
+                stream.reset();
+            } catch (IOException resetError) {
+                // format error is more useful to caller, other providers can't read the stream anyway
+            }
+            throw e;
+        }
+    }
+
+    private static Xmp loadModule(byte[] data) throws UnsupportedAudioFileException {
+        if(data == null) {
+            throw new UnsupportedAudioFileException("Stream is too large");
+        }
+
+        Xmp xmp = new Xmp();
+        try {
+            xmp.loadModule(data);
+            return xmp;
+        } catch (RuntimeException e) {
+            // system errors are reported as LastErrorException
+            xmp.close();
+            throw unsupported(e);
+        } catch (Error e) {
+            xmp.close();
+            throw unsupported(e);
+        }
+    }
+
+    /**
+     * Reads header and tests it, whole stream is read only if header belongs to supported module
+     *
+     * @return module data, or null if stream is larger than {@link #MAX_MODULE_SIZE}
+     */
+    private static byte[] readModule(InputStream stream) throws UnsupportedAudioFileException, IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        int readed;
+        while (length < header.length && (readed = stream.read(header, length, header.length - length)) > 0) {
+            length += readed;
+        }
+
+        testHeader(header, length);
+        if(length < header.length) {
+            byte[] data = new byte[length];
+            System.arraycopy(header, 0, data, 0, length);
+            return data;
+        }
+
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        result.write(header);
+        while ((readed = stream.read(buffer)) > 0) {
+            result.write(buffer, 0, readed);
+            if(result.size() > MAX_MODULE_SIZE) {
+                return null;
+            }
+        }
+        return result.toByteArray();
+    }
+
+    private static void testHeader(byte[] header, int length) throws UnsupportedAudioFileException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1, length));
+        buffer.put(header, 0, length);
+        buffer.flip();
+
+        int status;
+        try {
+            status = Xmp.testModule(buffer, new XmpNative.TestInfo());
+        } catch (RuntimeException e) {
+            throw unsupported(e);
+        } catch (Error e) {
+            throw unsupported(e);
+        }
+
+        if(status < 0) {
+            throw new UnsupportedAudioFileException("Not a supported module");
+        }
+    }
+
+    private static AudioFileFormat getFileFormat(Xmp xmp, String extension) {
+        Xmp.Module module = xmp.getModuleInfo().getModule();
+        return createFileFormat(module.getType(), module.getName(), extension);
+    }
+
+    private static AudioFileFormat createFileFormat(String type, String title, String extension) {
+        AudioFormat format = XmpAudioInputStream.createFormat(SAMPLE_RATE, FORMAT);
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("title", title);
+        return new AudioFileFormat(new AudioFileFormat.Type(type, extension),
+                format, AudioSystem.NOT_SPECIFIED, properties);
+    }
+
+    private static String getExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1) : "";
+    }
+
+    private static UnsupportedAudioFileException unsupported(RuntimeException e) {
+        UnsupportedAudioFileException exception = new UnsupportedAudioFileException(e.getMessage());
+        exception.initCause(e);
+        return exception;
+    }
+
+    private static UnsupportedAudioFileException unsupported(Error e) {
+        if(e instanceof VirtualMachineError) {
+            throw e;
+        }
+        return new UnsupportedAudioFileException(e.getMessage());
+    }
+}
@@ -0,0 +1,158 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import com.sun.jna.Memory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * Audio stream that renders module on demand, directly into buffer passed to read()
+ */
+public class XmpAudioInputStream extends AudioInputStream {
+
+    private final Xmp xmp;
+    private final int loopCount;
+    private final boolean ownsContext;
+    private Memory scratch;
+    private boolean ended;
+    private boolean closed;
+
+    /**
+     * Starts player on context with already loaded module
+     *
+     * @param xmp context with loaded module
+     * @param sampleRate output sample rate
+     * @param format combination of Xmp.FORMAT_* flags
+     * @param loopCount number of times module is played before stream ends, 0 means forever
+     */
+    public XmpAudioInputStream(Xmp xmp, int sampleRate, int format, int loopCount) {
+        this(xmp, sampleRate, format, loopCount, false);
+    }
+
+    XmpAudioInputStream(Xmp xmp, int sampleRate, int format, int loopCount, boolean ownsContext) {
+        super(new ByteArrayInputStream(new byte[0]), createFormat(sampleRate, format), AudioSystem.NOT_SPECIFIED);
+        this.xmp = xmp;
+        this.loopCount = loopCount;
+        this.ownsContext = ownsContext;
+        xmp.startPlayer(sampleRate, format);
+    }
+
+    /**
+     * Returns audio format matching libxmp output for specified format flags
+     */
+    public static AudioFormat createFormat(int sampleRate, int format) {
+        boolean is8Bit = (format & Xmp.FORMAT_8BIT) != 0;
+        boolean isSigned = (format & Xmp.FORMAT_UNSIGNED) == 0;
+        int channels = (format & Xmp.FORMAT_MONO) != 0 ? 1 : 2;
+        boolean bigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+        return new AudioFormat(sampleRate, is8Bit ? 8 : 16, channels, isSigned, bigEndian);
+    }
+
+    public Xmp getXmp() {
+        return xmp;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if(off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if(ended) {
+            return -1;
+        }
+
+        int frameSize = format.getFrameSize();
+        int length = len - len % frameSize;
+
+        if(length == 0) {
+            return 0;
+        }
+
+        if(off == 0 && length == b.length) {
+            ended = !xmp.playBuffer(b, loopCount);
+        } else {
+            Memory memory = getScratch(length);
+            ended = !xmp.playBuffer(memory, 0, length, loopCount);
+            memory.read(0, b, off, length);
+        }
+
+        if(ended) {
+            return -1;
+        }
+
+        framePos += length / frameSize;
+        return length;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if(closed) {
+            throw new IOException("Stream closed");
+        }
+
+        int frameSize = format.getFrameSize();
+        long remaining = n - n % frameSize;
+        long skipped = 0;
+
+        while(remaining > 0 && !ended) {
+            int length = (int) Math.min(remaining, 16384);
+            Memory memory = getScratch(length);
+            ended = !xmp.playBuffer(memory, 0, length, loopCount);
+
+            if(!ended) {
+                skipped += length;
+                remaining -= length;
+            }
+        }
+
+        framePos += skipped / frameSize;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("Mark is not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!closed) {
+            closed = true;
+            if(ownsContext) {
+                xmp.close();
+            } else {
+                xmp.endPlayer();
+            }
+        }
+    }
+
+    private Memory getScratch(int length) {
+        if(scratch == null || scratch.size() < length) {
+            scratch = new Memory(length);
+        }
+        return scratch;
+    }
+}
@@ -0,0 +1,314 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline renderer, renders list of modules to WAV or raw files on fixed number of contexts
+ */
+public class XmpBatchRenderer {
+
+    public enum OutputType {
+        Wav,
+        Raw
+    }
+
+    public interface Listener {
+        void onRendered(Result result);
+    }
+
+    public static class Result extends XmpRenderResult {
+
+        private final File module;
+        private final File output;
+        private final long audioTime;
+        private final long wallTime;
+
+        Result(File module, File output, long renderedBytes, long audioTime, long wallTime, Throwable error) {
+            super(renderedBytes, error);
+            this.module = module;
+            this.output = output;
+            this.audioTime = audioTime;
+            this.wallTime = wallTime;
+        }
+
+        public File getModule() {
+            return module;
+        }
+
+        public File getOutput() {
+            return output;
+        }
+
+        /**
+         * Duration of rendered audio in milliseconds
+         */
+        public long getAudioTime() {
+            return audioTime;
+        }
+
+        /**
+         * Time spent on rendering in milliseconds
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * How many times faster than realtime module was rendered
+         */
+        public double getRealtimeFactor() {
+            return wallTime > 0 ? (double) audioTime / wallTime : 0;
+        }
+    }
+
+    private final int threads;
+    private int sampleRate = 44100;
+    private int format = 0;
+    private int loopCount = 1;
+    private int bufferSize = 65536;
+    private OutputType outputType = OutputType.Wav;
+
+    public XmpBatchRenderer(int threads) {
+        if(threads <= 0) {
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void setFormat(int format) {
+        this.format = format;
+    }
+
+    public void setLoopCount(int loopCount) {
+        this.loopCount = loopCount;
+    }
+
+    /**
+     * @throws IllegalArgumentException if buffer can't hold single frame of current format
+     */
+    public void setBufferSize(int bufferSize) {
+        XmpRenderWorkers.getBufferSize(bufferSize, format);
+        this.bufferSize = bufferSize;
+    }
+
+    public void setOutputType(OutputType outputType) {
+        this.outputType = outputType;
+    }
+
+    public List<Result> render(List<File> modules, File outputDir) throws InterruptedException {
+        return render(modules, outputDir, null);
+    }
+
+    /**
+     * Renders modules to outputDir, each context renders one module at a time.
+     * Output files keep module paths relative to their common directory, so modules with same name
+     * in different directories don't overwrite each other.
+     * Results are returned in the same order as modules, each module has result, failed ones have error set
+     *
+     * @throws IllegalArgumentException if same module is listed more than once
+     */
+    public List<Result> render(final List<File> modules, final File outputDir, final Listener listener)
+            throws InterruptedException {
+
+        final File[] outputs = getOutputFiles(modules, outputDir);
+        final Result[] results = new Result[modules.size()];
+
+        int size = XmpRenderWorkers.getBufferSize(bufferSize, format);
+
+        XmpRenderWorkers.run(threads, results.length, size, null, null, new XmpRenderWorkers.Job() {
+            @Override
+            public void render(Xmp xmp, ByteBuffer buffer, int index) {
+                onRendered(index, renderModule(xmp, buffer, modules.get(index), outputs[index]));
+            }
+
+            @Override
+            public void fail(int index, Throwable error) {
+                onRendered(index, new Result(modules.get(index), outputs[index], 0, 0, 0, error));
+            }
+
+            private void onRendered(int index, Result result) {
+                results[index] = result;
+                if(listener != null) {
+                    listener.onRendered(result);
+                }
+            }
+        });
+
+        return Arrays.asList(results);
+    }
+
+    private File[] getOutputFiles(List<File> modules, File outputDir) {
+        String extension = outputType == OutputType.Wav ? ".wav" : ".raw";
+        String[] paths = new String[modules.size()];
+        String root = null;
+
+        for(int i = 0; i < paths.length; i++) {
+            paths[i] = modules.get(i).getAbsoluteFile().getPath();
+            String parent = paths[i].substring(0, paths[i].lastIndexOf(File.separatorChar) + 1);
+            root = root == null ? parent : getCommonDirectory(root, parent);
+        }
+
+        File[] outputs = new File[paths.length];
+        Set<File> used = new HashSet<File>();
+        for(int i = 0; i < paths.length; i++) {
+            outputs[i] = new File(outputDir, paths[i].substring(root.length()) + extension);
+            if(!used.add(outputs[i])) {
+                throw new IllegalArgumentException("Module is listed more than once: " + modules.get(i));
+            }
+        }
+
+        return outputs;
+    }
+
+    /**
+     * Both paths end with separator, so does the result
+     */
+    private static String getCommonDirectory(String first, String second) {
+        int length = 0;
+        int limit = Math.min(first.length(), second.length());
+        for(int i = 0; i < limit && first.charAt(i) == second.charAt(i); i++) {
+            if(first.charAt(i) == File.separatorChar) {
+                length = i + 1;
+            }
+        }
+        return first.substring(0, length);
+    }
+
+    private Result renderModule(Xmp xmp, ByteBuffer buffer, File module, File output) {
+        long start = System.nanoTime();
+        long rendered = 0;
+        Throwable error = null;
+
+        try {
+            xmp.loadModule(module.getAbsolutePath());
+            rendered = renderTo(xmp, buffer, output);
+        } catch (Throwable e) {
+            error = XmpRenderWorkers.failure(e);
+        } finally {
+            xmp.releaseModule();
+        }
+
+        long wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long bytesPerSecond = (long) sampleRate * Xmp.getFrameSize(format);
+        return new Result(module, output, rendered, rendered * 1000 / bytesPerSecond, wallTime, error);
+    }
+
+    private long renderTo(Xmp xmp, ByteBuffer buffer, File output) throws IOException {
+        File directory = output.getParentFile();
+        if(directory != null && !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Can't create directory " + directory);
+        }
+
+        AudioFormat audioFormat = XmpAudioInputStream.createFormat(sampleRate, getPlayerFormat());
+        XmpFileSink sink = new XmpFileSink(output, audioFormat, outputType == OutputType.Wav);
+
+        try {
+            xmp.startPlayer(sampleRate, getPlayerFormat());
+            XmpRenderWorkers.play(xmp, buffer, sink, Long.MAX_VALUE, loopCount);
+        } finally {
+            xmp.endPlayer();
+            sink.close();
+        }
+
+        return sink.getDataSize();
+    }
+
+    private int getPlayerFormat() {
+        if(outputType == OutputType.Wav) {
+            // WAV stores 8-bit samples as unsigned, 16-bit as signed
+            return (format & Xmp.FORMAT_8BIT) != 0
+                    ? format | Xmp.FORMAT_UNSIGNED
+                    : format & ~Xmp.FORMAT_UNSIGNED;
+        }
+        return format;
+    }
+
+    /**
+     * Usage: XmpBatchRenderer [-threads n] [-rate hz] [-loops n] [-raw] outputDir module...
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int sampleRate = 44100;
+        int loops = 1;
+        OutputType type = OutputType.Wav;
+        int i = 0;
+
+        for(; i < args.length && args[i].startsWith("-"); i++) {
+            String option = args[i];
+            if(option.equals("-raw")) {
+                type = OutputType.Raw;
+            } else if(option.equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if(option.equals("-rate") && i + 1 < args.length) {
+                sampleRate = Integer.parseInt(args[++i]);
+            } else if(option.equals("-loops") && i + 1 < args.length) {
+                loops = Integer.parseInt(args[++i]);
+            } else {
+                printUsage();
+                return;
+            }
+        }
+
+        if(args.length - i < 2) {
+            printUsage();
+            return;
+        }
+
+        File outputDir = new File(args[i++]);
+        List<File> modules = new ArrayList<File>();
+        for(; i < args.length; i++) {
+            modules.add(new File(args[i]));
+        }
+
+        if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Can't create output directory " + outputDir);
+            return;
+        }
+
+        XmpBatchRenderer renderer = new XmpBatchRenderer(threads);
+        renderer.setSampleRate(sampleRate);
+        renderer.setLoopCount(loops);
+        renderer.setOutputType(type);
+
+        long start = System.nanoTime();
+        List<Result> results = renderer.render(modules, outputDir, new Listener() {
+            @Override
+            public void onRendered(Result result) {
+                if(result.isSuccessful()) {
+                    System.out.println(String.format(Locale.US, "%s: %d ms in %d ms, %.1fx realtime",
+                            result.getModule(), result.getAudioTime(), result.getWallTime(),
+                            result.getRealtimeFactor()));
+                } else {
+                    System.out.println(result.getModule() + ": " + result.getError());
+                }
+            }
+        });
+
+        long audioTime = 0;
+        for(Result result : results) {
+            audioTime += result.getAudioTime();
+        }
+
+        long wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(String.format(Locale.US, "Rendered %d modules, %d ms in %d ms, %.1fx realtime",
+                results.size(), audioTime, wallTime, wallTime > 0 ? (double) audioTime / wallTime : 0));
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: XmpBatchRenderer [-threads n] [-rate hz] [-loops n] [-raw] outputDir module...");
+    }
+}
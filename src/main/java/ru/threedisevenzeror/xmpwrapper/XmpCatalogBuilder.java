@@ -0,0 +1,416 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks directory tree and probes every file for supported module format on fixed number of threads.
+ * Files are memory mapped and tested with {@link Xmp#testModule(java.nio.ByteBuffer)},
+ * records of recognized modules are passed to sink as soon as they are probed
+ */
+public class XmpCatalogBuilder {
+
+    public interface Sink {
+
+        /**
+         * Called for each recognized module, calls are serialized, so sink doesn't need to be thread safe
+         */
+        void onRecord(Record record) throws IOException;
+    }
+
+    public interface ProgressListener {
+        void onProgress(Stats stats);
+    }
+
+    public static class Record {
+
+        private final File file;
+        private final String name;
+        private final String type;
+        private final long size;
+        private final byte[] md5;
+
+        Record(File file, String name, String type, long size, byte[] md5) {
+            this.file = file;
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.md5 = md5;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * MD5 of file contents, same as {@link Xmp.ModuleInfo#getMd5()} for modules which are not packed
+         */
+        public byte[] getMd5() {
+            return md5;
+        }
+
+        public String getMd5Hex() {
+            return XmpModuleCache.toHex(md5);
+        }
+    }
+
+    public static class Stats {
+
+        private final long files;
+        private final long modules;
+        private final long errors;
+        private final long bytes;
+        private final long elapsed;
+
+        Stats(long files, long modules, long errors, long bytes, long elapsed) {
+            this.files = files;
+            this.modules = modules;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.elapsed = elapsed;
+        }
+
+        public long getFileCount() {
+            return files;
+        }
+
+        public long getModuleCount() {
+            return modules;
+        }
+
+        /**
+         * Number of files which couldn't be read
+         */
+        public long getErrorCount() {
+            return errors;
+        }
+
+        public long getByteCount() {
+            return bytes;
+        }
+
+        /**
+         * Time since build start in milliseconds
+         */
+        public long getElapsedTime() {
+            return elapsed;
+        }
+
+        public double getFilesPerSecond() {
+            return elapsed > 0 ? files * 1000.0 / elapsed : 0;
+        }
+
+        public double getBytesPerSecond() {
+            return elapsed > 0 ? bytes * 1000.0 / elapsed : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d files, %d modules, %d errors, %.1f files/s, %.1f MB/s",
+                    files, modules, errors, getFilesPerSecond(), getBytesPerSecond() / (1024 * 1024));
+        }
+    }
+
+    // signatures of packers libxmp depacks when loading by path
+    private static final byte[][] PACKER_SIGNATURES = {
+            { 0x1F, (byte) 0x8B },                                  // gzip
+            { 0x1F, (byte) 0x9D },                                  // compress
+            { 'B', 'Z', 'h' },                                      // bzip2
+            { (byte) 0xFD, '7', 'z', 'X', 'Z', 0 },                 // xz
+            { 'P', 'K', 3, 4 },                                     // zip
+            { 'z', 'i', 'R', 'C', 'O', 'N', 'i', 'a' },             // mmcmp
+            { 'P', 'P', '2', '0' },                                 // powerpacker
+            { 'X', 'P', 'K', 'F' },                                 // xpk
+            { 'S', '4', '0', '4' },                                 // s404
+            { 'C', 'r', 'M', '!' },                                 // crunchmania
+            { 'C', 'r', 'M', '2' },
+            { 'M', 'U', 'S', 'E' },                                 // muse
+    };
+
+    private final int threads;
+    private boolean testPacked = true;
+    private int progressInterval = 1000;
+    private ProgressListener progressListener;
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong modules = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long startTime;
+
+    private final ThreadLocal<Probe> probes = new ThreadLocal<Probe>() {
+        @Override
+        protected Probe initialValue() {
+            return new Probe();
+        }
+    };
+
+    // per thread state, reused for every file
+    private static class Probe {
+
+        final XmpNative.TestInfo info = new XmpNative.TestInfo();
+        final MessageDigest digest;
+
+        Probe() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public XmpCatalogBuilder(int threads) {
+        if(threads <= 0) {
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Whether files which start with signature of packer supported by libxmp are tested again by path,
+     * so packed modules are recognized too. Other files are tested from memory only. Enabled by default
+     */
+    public void setTestPacked(boolean testPacked) {
+        this.testPacked = testPacked;
+    }
+
+    /**
+     * Listener is called after every interval probed files and once when build is finished
+     */
+    public void setProgressListener(ProgressListener listener, int interval) {
+        this.progressListener = listener;
+        this.progressInterval = Math.max(1, interval);
+    }
+
+    public Stats getStats() {
+        return new Stats(files.get(), modules.get(), errors.get(), bytes.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    /**
+     * Probes all files under root and returns final stats.
+     * Directory is walked on calling thread, it probes files too when all threads are busy.
+     * Directories reachable by several paths, for example through symbolic links, are walked once.
+     * First exception thrown by sink stops the build and is thrown from this method
+     */
+    public Stats build(File root, final Sink sink) throws IOException, InterruptedException {
+        files.set(0);
+        modules.set(0);
+        errors.set(0);
+        bytes.set(0);
+        startTime = System.nanoTime();
+
+        final Throwable[] sinkError = new Throwable[1];
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try {
+            walk(root, new HashSet<String>(), executor, sink, sinkError);
+        } finally {
+            executor.shutdown();
+            try {
+                while(!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // waiting for queued files
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                throw e;
+            }
+        }
+
+        synchronized (sinkError) {
+            if(sinkError[0] instanceof IOException) {
+                throw (IOException) sinkError[0];
+            } else if(sinkError[0] instanceof RuntimeException) {
+                throw (RuntimeException) sinkError[0];
+            } else if(sinkError[0] != null) {
+                throw (Error) sinkError[0];
+            }
+        }
+
+        Stats stats = getStats();
+        if(progressListener != null) {
+            progressListener.onProgress(stats);
+        }
+        return stats;
+    }
+
+    /**
+     * @param visited canonical paths of walked directories, so symbolic link loops are walked only once
+     */
+    private void walk(File directory, Set<String> visited, ThreadPoolExecutor executor, final Sink sink,
+                      final Throwable[] sinkError) throws InterruptedException {
+
+        try {
+            if(!visited.add(directory.getCanonicalPath())) {
+                return;
+            }
+        } catch (IOException e) {
+            errors.incrementAndGet();
+            return;
+        }
+
+        File[] children = directory.listFiles();
+        if(children == null) {
+            errors.incrementAndGet();
+            return;
+        }
+
+        for(final File child : children) {
+            if(Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            synchronized (sinkError) {
+                if(sinkError[0] != null) {
+                    return;
+                }
+            }
+
+            if(child.isDirectory()) {
+                walk(child, visited, executor, sink, sinkError);
+            } else if(child.isFile()) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            probe(child, sink);
+                        } catch (IOException e) {
+                            setSinkError(sinkError, e);
+                        } catch (RuntimeException e) {
+                            setSinkError(sinkError, e);
+                        } catch (Error e) {
+                            setSinkError(sinkError, e);
+                            if(e instanceof VirtualMachineError) {
+                                throw e;
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private static void setSinkError(Throwable[] sinkError, Throwable error) {
+        synchronized (sinkError) {
+            if(sinkError[0] == null) {
+                sinkError[0] = error;
+            }
+        }
+    }
+
+    /**
+     * Errors of probed file are counted, errors thrown by sink are passed to caller
+     */
+    private void probe(File file, Sink sink) throws IOException {
+        Record record = null;
+
+        try {
+            record = test(file);
+        } catch (IOException e) {
+            errors.incrementAndGet();
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+        } catch (Error e) {
+            if(e instanceof VirtualMachineError) {
+                throw e;
+            }
+            errors.incrementAndGet();
+        }
+
+        if(record != null) {
+            modules.incrementAndGet();
+            synchronized (sink) {
+                sink.onRecord(record);
+            }
+        }
+
+        long count = files.incrementAndGet();
+        ProgressListener listener = progressListener;
+        if(listener != null && count % progressInterval == 0) {
+            listener.onProgress(getStats());
+        }
+    }
+
+    private Record test(File file) throws IOException {
+        Probe probe = probes.get();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        MappedByteBuffer data;
+        long size;
+
+        try {
+            FileChannel channel = input.getChannel();
+            size = channel.size();
+            if(size == 0 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            input.close();
+        }
+
+        bytes.addAndGet(size);
+
+        int status = Xmp.testModule(data, probe.info);
+        if(status < 0 && testPacked && isPacked(data)) {
+            status = Xmp.testModule(file.getPath(), probe.info);
+        }
+
+        if(status < 0) {
+            return null;
+        }
+
+        probe.digest.reset();
+        probe.digest.update(data);
+        return new Record(file, probe.info.getName(), probe.info.getType(), size, probe.digest.digest());
+    }
+
+    private static boolean isPacked(ByteBuffer data) {
+        for(byte[] signature : PACKER_SIGNATURES) {
+            if(startsWith(data, signature)) {
+                return true;
+            }
+        }
+        // lha header has method id "-lh?-" after size and checksum bytes
+        return data.remaining() >= 7 && data.get(2) == '-' && data.get(3) == 'l' && data.get(4) == 'h'
+                && data.get(6) == '-';
+    }
+
+    private static boolean startsWith(ByteBuffer data, byte[] signature) {
+        if(data.remaining() < signature.length) {
+            return false;
+        }
+        for(int i = 0; i < signature.length; i++) {
+            if(data.get(i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,453 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only catalog of module metadata in compact binary file, written by {@link Writer}.
+ * File is memory mapped and records are read directly from it, nothing is deserialized on open,
+ * so opening is instant and doesn't depend on number of modules.
+ *
+ * Records have fixed size, strings are stored once in sorted string table and referenced by index,
+ * so filtering by format compares integers only. Index file is limited to 2GB
+ */
+public class XmpCatalogIndex {
+
+    private static final int MAGIC = 0x584D5049; // "XMPI"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 48;
+    private static final int SEQUENCE_SIZE = 8;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // record layout
+    private static final int MD5 = 0;
+    private static final int PATH = 16;
+    private static final int NAME = 20;
+    private static final int TYPE = 24;
+    private static final int CHANNELS = 28;
+    private static final int PATTERNS = 30;
+    private static final int INSTRUMENTS = 32;
+    private static final int SAMPLES = 34;
+    private static final int LENGTH = 36;
+    private static final int SEQUENCE_COUNT = 38;
+    private static final int FIRST_SEQUENCE = 40;
+    private static final int DURATION = 44;
+
+    /**
+     * Record filter, unset conditions match everything
+     */
+    public static class Filter {
+
+        private String type;
+        private int minDuration = 0;
+        private int maxDuration = Integer.MAX_VALUE;
+        private int minChannels = 0;
+        private int maxChannels = Integer.MAX_VALUE;
+
+        public Filter setType(String type) {
+            this.type = type;
+            return this;
+        }
+
+        /**
+         * Duration of main sequence in milliseconds, inclusive
+         */
+        public Filter setDuration(int min, int max) {
+            this.minDuration = min;
+            this.maxDuration = max;
+            return this;
+        }
+
+        public Filter setChannels(int min, int max) {
+            this.minChannels = min;
+            this.maxChannels = max;
+            return this;
+        }
+    }
+
+    private final ByteBuffer data;
+    private final int recordCount;
+    private final int stringCount;
+    private final int recordsOffset;
+    private final int sequencesOffset;
+    private final int stringsOffset;
+    private final int stringDataOffset;
+
+    private XmpCatalogIndex(ByteBuffer data) throws IOException {
+        this.data = data;
+
+        if(data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog index");
+        }
+        if(data.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported catalog index version: " + data.getInt(4));
+        }
+
+        this.recordCount = data.getInt(8);
+        this.stringCount = data.getInt(16);
+        this.recordsOffset = data.getInt(20);
+        this.sequencesOffset = data.getInt(24);
+        this.stringsOffset = data.getInt(28);
+        this.stringDataOffset = stringsOffset + (stringCount + 1) * 4;
+    }
+
+    public static XmpCatalogIndex open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Catalog index is too large: " + file);
+            }
+            return new XmpCatalogIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            input.close();
+        }
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public String getPath(int record) {
+        return getString(data.getInt(offset(record) + PATH));
+    }
+
+    public String getName(int record) {
+        return getString(data.getInt(offset(record) + NAME));
+    }
+
+    public String getType(int record) {
+        return getString(data.getInt(offset(record) + TYPE));
+    }
+
+    public int getMd5Byte(int record, int index) {
+        return data.get(offset(record) + MD5 + index) & 0xFF;
+    }
+
+    public byte[] getMd5(int record) {
+        byte[] md5 = new byte[16];
+        int offset = offset(record) + MD5;
+        for(int i = 0; i < md5.length; i++) {
+            md5[i] = data.get(offset + i);
+        }
+        return md5;
+    }
+
+    public int getChannelCount(int record) {
+        return data.getShort(offset(record) + CHANNELS) & 0xFFFF;
+    }
+
+    public int getPatternCount(int record) {
+        return data.getShort(offset(record) + PATTERNS) & 0xFFFF;
+    }
+
+    public int getInstrumentCount(int record) {
+        return data.getShort(offset(record) + INSTRUMENTS) & 0xFFFF;
+    }
+
+    public int getSampleCount(int record) {
+        return data.getShort(offset(record) + SAMPLES) & 0xFFFF;
+    }
+
+    /**
+     * Module length in patterns
+     */
+    public int getLength(int record) {
+        return data.getShort(offset(record) + LENGTH) & 0xFFFF;
+    }
+
+    /**
+     * Duration of main sequence in milliseconds
+     */
+    public int getDuration(int record) {
+        return data.getInt(offset(record) + DURATION);
+    }
+
+    public int getSequenceCount(int record) {
+        return data.getShort(offset(record) + SEQUENCE_COUNT) & 0xFFFF;
+    }
+
+    public int getSequenceEntryPoint(int record, int sequence) {
+        return data.getInt(sequenceOffset(record, sequence));
+    }
+
+    public int getSequenceDuration(int record, int sequence) {
+        return data.getInt(sequenceOffset(record, sequence) + 4);
+    }
+
+    /**
+     * Returns index of string in string table, or -1 if no record has it
+     */
+    public int findString(String value) {
+        int low = 0;
+        int high = stringCount - 1;
+
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = getString(middle).compareTo(value);
+            if(compare < 0) {
+                low = middle + 1;
+            } else if(compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns indices of records which match filter
+     */
+    public int[] select(Filter filter) {
+        int type = -1;
+        if(filter.type != null) {
+            type = findString(filter.type);
+            if(type < 0) {
+                return new int[0];
+            }
+        }
+
+        int[] result = new int[16];
+        int count = 0;
+
+        for(int i = 0; i < recordCount; i++) {
+            int offset = offset(i);
+
+            if(type >= 0 && data.getInt(offset + TYPE) != type) {
+                continue;
+            }
+
+            int duration = data.getInt(offset + DURATION);
+            if(duration < filter.minDuration || duration > filter.maxDuration) {
+                continue;
+            }
+
+            int channels = data.getShort(offset + CHANNELS) & 0xFFFF;
+            if(channels < filter.minChannels || channels > filter.maxChannels) {
+                continue;
+            }
+
+            if(count == result.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(result, 0, grown, 0, count);
+                result = grown;
+            }
+            result[count++] = i;
+        }
+
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    private int offset(int record) {
+        if(record < 0 || record >= recordCount) {
+            throw new IndexOutOfBoundsException("Invalid record: " + record);
+        }
+        return recordsOffset + record * RECORD_SIZE;
+    }
+
+    private int sequenceOffset(int record, int sequence) {
+        int offset = offset(record);
+        if(sequence < 0 || sequence >= (data.getShort(offset + SEQUENCE_COUNT) & 0xFFFF)) {
+            throw new IndexOutOfBoundsException("Invalid sequence: " + sequence);
+        }
+        return sequencesOffset + (data.getInt(offset + FIRST_SEQUENCE) + sequence) * SEQUENCE_SIZE;
+    }
+
+    private String getString(int index) {
+        int start = data.getInt(stringsOffset + index * 4);
+        int end = data.getInt(stringsOffset + index * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(stringDataOffset + start + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Collects module metadata and writes it as catalog index
+     */
+    public static class Writer {
+
+        private static class Entry {
+            final byte[] md5 = new byte[16];
+            int path;
+            int name;
+            int type;
+            int channels;
+            int patterns;
+            int instruments;
+            int samples;
+            int length;
+            int[] entryPoints;
+            int[] durations;
+        }
+
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        private final List<String> stringList = new ArrayList<String>();
+
+        /**
+         * Adds metadata of module loaded into context, module should be scanned to have sequence durations
+         *
+         * @param path file path or any other key identifying module
+         */
+        public void add(String path, Xmp.ModuleInfo info) {
+            Xmp.Module module = info.getModule();
+            Entry entry = new Entry();
+            System.arraycopy(info.getMd5(), 0, entry.md5, 0, 16);
+            entry.path = intern(path);
+            entry.name = intern(module.getName());
+            entry.type = intern(module.getType());
+            entry.channels = module.getTracksPerPattern();
+            entry.patterns = module.getPatternCount();
+            entry.instruments = module.getNumberOfInstruments();
+            entry.samples = module.getNumberOfSamples();
+            entry.length = module.getModuleLengthInPatterns();
+
+            int count = info.getSequenceCount();
+            Xmp.Sequence[] sequences = count > 0 ? info.getSequences() : new Xmp.Sequence[0];
+            entry.entryPoints = new int[sequences.length];
+            entry.durations = new int[sequences.length];
+            for(int i = 0; i < sequences.length; i++) {
+                entry.entryPoints[i] = sequences[i].getEntryPoint();
+                entry.durations[i] = sequences[i].getDuration();
+            }
+
+            entries.add(entry);
+        }
+
+        public void add(String path, XmpModuleSnapshot snapshot) {
+            Entry entry = new Entry();
+            System.arraycopy(snapshot.getMd5(), 0, entry.md5, 0, 16);
+            entry.path = intern(path);
+            entry.name = intern(snapshot.getName());
+            entry.type = intern(snapshot.getType());
+            entry.channels = snapshot.getChannelCount();
+            entry.patterns = snapshot.getPatternCount();
+            entry.instruments = snapshot.getInstrumentCount();
+            entry.samples = snapshot.getSampleCount();
+            entry.length = snapshot.getOrderCount();
+
+            int count = snapshot.getSequenceCount();
+            entry.entryPoints = new int[count];
+            entry.durations = new int[count];
+            for(int i = 0; i < count; i++) {
+                entry.entryPoints[i] = snapshot.getSequenceEntryPoint(i);
+                entry.durations[i] = snapshot.getSequenceDuration(i);
+            }
+
+            entries.add(entry);
+        }
+
+        public int getRecordCount() {
+            return entries.size();
+        }
+
+        public void write(File file) throws IOException {
+            // string indices are remapped to sorted order, so reader can search them
+            String[] sorted = stringList.toArray(new String[stringList.size()]);
+            Arrays.sort(sorted);
+            int[] remap = new int[sorted.length];
+            byte[][] encoded = new byte[sorted.length][];
+            int stringDataSize = 0;
+            for(int i = 0; i < sorted.length; i++) {
+                remap[strings.get(sorted[i])] = i;
+                encoded[i] = sorted[i].getBytes(UTF8);
+                stringDataSize += encoded[i].length;
+            }
+
+            int sequenceCount = 0;
+            for(Entry entry : entries) {
+                sequenceCount += entry.entryPoints.length;
+            }
+
+            long recordsOffset = HEADER_SIZE;
+            long sequencesOffset = recordsOffset + (long) entries.size() * RECORD_SIZE;
+            long stringsOffset = sequencesOffset + (long) sequenceCount * SEQUENCE_SIZE;
+            long size = stringsOffset + (sorted.length + 1) * 4L + stringDataSize;
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("Catalog index is too large: " + size);
+            }
+
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeInt(entries.size());
+                output.writeInt(sequenceCount);
+                output.writeInt(sorted.length);
+                output.writeInt((int) recordsOffset);
+                output.writeInt((int) sequencesOffset);
+                output.writeInt((int) stringsOffset);
+
+                int firstSequence = 0;
+                for(Entry entry : entries) {
+                    output.write(entry.md5);
+                    output.writeInt(remap[entry.path]);
+                    output.writeInt(remap[entry.name]);
+                    output.writeInt(remap[entry.type]);
+                    output.writeShort(entry.channels);
+                    output.writeShort(entry.patterns);
+                    output.writeShort(entry.instruments);
+                    output.writeShort(entry.samples);
+                    output.writeShort(entry.length);
+                    output.writeShort(entry.entryPoints.length);
+                    output.writeInt(firstSequence);
+                    output.writeInt(entry.durations.length > 0 ? entry.durations[0] : 0);
+                    firstSequence += entry.entryPoints.length;
+                }
+
+                for(Entry entry : entries) {
+                    for(int i = 0; i < entry.entryPoints.length; i++) {
+                        output.writeInt(entry.entryPoints[i]);
+                        output.writeInt(entry.durations[i]);
+                    }
+                }
+
+                int stringOffset = 0;
+                for(byte[] string : encoded) {
+                    output.writeInt(stringOffset);
+                    stringOffset += string.length;
+                }
+                output.writeInt(stringOffset);
+
+                for(byte[] string : encoded) {
+                    output.write(string);
+                }
+            } finally {
+                output.close();
+            }
+        }
+
+        private int intern(String value) {
+            if(value == null) {
+                value = "";
+            }
+
+            Integer index = strings.get(value);
+            if(index == null) {
+                index = stringList.size();
+                strings.put(value, index);
+                stringList.add(value);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * Direct-mapped binding for calls that are made on every rendered buffer or frame.
+ * Direct mapping skips interface proxy reflection and argument boxing,
+ * {@link XmpNative} is still used for everything else and as fallback.
+ */
+final class XmpDirect {
+
+    static final boolean Available;
+
+    static {
+        boolean registered;
+
+        try {
+            Native.register(XmpDirect.class, XmpNative.LibraryInstance);
+            registered = true;
+        } catch (Throwable e) {
+            registered = false;
+        }
+
+        Available = registered;
+    }
+
+    private XmpDirect() {}
+
+    static native int xmp_play_frame(XmpNative.Context context);
+
+    static native int xmp_play_buffer(XmpNative.Context context, byte[] buffer, int size, int loopCount);
+
+    static native int xmp_play_buffer(XmpNative.Context context, Pointer buffer, int size, int loopCount);
+
+    static native void xmp_get_frame_info(XmpNative.Context context, XmpNative.FrameInfo outInfo);
+
+    static native void xmp_get_frame_info(XmpNative.Context context, Pointer outInfo);
+
+    static native void xmp_inject_event(XmpNative.Context context, int channel, Pointer event);
+
+    static native int xmp_channel_mute(XmpNative.Context context, int channel, int operationFlag);
+
+    static native int xmp_channel_vol(XmpNative.Context context, int chanel, int volume);
+
+    static native int xmp_set_player(XmpNative.Context context, int param, int value);
+
+    static native int xmp_get_player(XmpNative.Context context, int param);
+}
@@ -0,0 +1,109 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+/**
+ * Fixed size queue of events, which are injected right before next playFrame or playBuffer call
+ * of context it is attached to with {@link Xmp#setEventQueue(XmpEventQueue)}.
+ * libxmp holds only one injected event per channel, so each call injects at most one event per channel,
+ * following events of same channel stay queued for next calls, in order.
+ * Adding and flushing events doesn't allocate. Events can be added from any thread,
+ * context never blocks while flushing them
+ */
+public class XmpEventQueue {
+
+    static final int EVENT_SIZE = 8;
+
+    private final int capacity;
+    private final int[] channels;
+    private final byte[] events;
+
+    // read position, written only by context thread
+    private volatile long head;
+    // write position, written only under lock
+    private volatile long tail;
+
+    public XmpEventQueue(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.channels = new int[capacity];
+        this.events = new byte[capacity * EVENT_SIZE];
+    }
+
+    public boolean offer(int channel, Xmp.Event event) {
+        return offer(channel, event.getNote(), event.getInstrument(), event.getVolume(),
+                event.getPrimaryEffectType(), event.getPrimaryEffectParams(),
+                event.getSecondaryEffectType(), event.getSecondaryEffectParams());
+    }
+
+    /**
+     * Adds event to queue
+     *
+     * @return false if queue is full
+     * @throws IllegalArgumentException if channel is out of range
+     */
+    public synchronized boolean offer(int channel, int note, int instrument, int volume,
+                                      int primaryEffect, int primaryEffectParams,
+                                      int secondaryEffect, int secondaryEffectParams) {
+        if(channel < 0 || channel >= XmpNative.XMP_MAX_CHANNELS) {
+            throw new IllegalArgumentException("Invalid channel: " + channel);
+        }
+
+        long position = tail;
+        if(position - head >= capacity) {
+            return false;
+        }
+
+        int index = (int) (position % capacity);
+        int offset = index * EVENT_SIZE;
+        channels[index] = channel;
+        events[offset] = (byte) note;
+        events[offset + 1] = (byte) instrument;
+        events[offset + 2] = (byte) volume;
+        events[offset + 3] = (byte) primaryEffect;
+        events[offset + 4] = (byte) primaryEffectParams;
+        events[offset + 5] = (byte) secondaryEffect;
+        events[offset + 6] = (byte) secondaryEffectParams;
+        events[offset + 7] = 0;
+
+        tail = position + 1;
+        return true;
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Injects queued events into context, until second event for same channel is met.
+     * Should be called only from thread which plays the context
+     */
+    int flush(Xmp xmp) {
+        long position = head;
+        long end = tail;
+        // channels which already got event, bit per channel
+        long injected = 0;
+
+        for(; position < end; position++) {
+            int index = (int) (position % capacity);
+            int channel = channels[index];
+            long bit = 1L << channel;
+
+            if((injected & bit) != 0) {
+                break;
+            }
+
+            injected |= bit;
+            xmp.injectEvent(channel, events, index * EVENT_SIZE);
+        }
+
+        int count = (int) (position - head);
+        head = position;
+        return count;
+    }
+}
@@ -0,0 +1,98 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes PCM data to raw or WAV file through FileChannel.
+ * WAV header is reserved on open and filled with actual sizes on close
+ */
+public class XmpFileSink implements XmpPcmSink {
+
+    private static final int WAV_HEADER_SIZE = 44;
+
+    private final FileChannel channel;
+    private final AudioFormat format;
+    private final boolean wav;
+    private long dataSize;
+
+    public XmpFileSink(File file, AudioFormat format, boolean wav) throws IOException {
+        if(wav && (format.getSampleSizeInBits() == 8) == (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED)) {
+            throw new IllegalArgumentException("WAV requires unsigned 8-bit or signed 16-bit samples");
+        }
+
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.format = format;
+        this.wav = wav;
+
+        channel.truncate(0);
+        if(wav) {
+            channel.position(WAV_HEADER_SIZE);
+        }
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        if(wav && format.isBigEndian() && format.getSampleSizeInBits() == 16) {
+            swapBytes(data);
+        }
+
+        while(data.hasRemaining()) {
+            dataSize += channel.write(data);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if(wav) {
+                writeWavHeader();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeWavHeader() throws IOException {
+        int channels = format.getChannels();
+        int sampleRate = (int) format.getSampleRate();
+        int frameSize = format.getFrameSize();
+
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'R', 'I', 'F', 'F' });
+        header.putInt((int) Math.min(0xFFFFFFFFL, WAV_HEADER_SIZE - 8 + dataSize));
+        header.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' });
+        header.putInt(16); // fmt chunk size
+        header.putShort((short) 1); // PCM
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * frameSize);
+        header.putShort((short) frameSize);
+        header.putShort((short) format.getSampleSizeInBits());
+        header.put(new byte[] { 'd', 'a', 't', 'a' });
+        header.putInt((int) Math.min(0xFFFFFFFFL, dataSize));
+        header.flip();
+
+        long position = 0;
+        while(header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    private static void swapBytes(ByteBuffer data) {
+        for(int i = data.position(); i + 1 < data.limit(); i += 2) {
+            byte b = data.get(i);
+            data.put(i, data.get(i + 1));
+            data.put(i + 1, b);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * Frame info that reads fields straight from native xmp_frame_info block on access,
+ * instead of marshalling whole structure with all channels on every frame.
+ * Values are valid until next {@link Xmp#getFrameView()} call on owning context.
+ */
+final class XmpFrameView implements Xmp.FrameInfo {
+
+    static final int SIZE;
+
+    private static final int POS;
+    private static final int PATTERN;
+    private static final int ROW;
+    private static final int NUM_ROWS;
+    private static final int FRAME;
+    private static final int SPEED;
+    private static final int BPM;
+    private static final int TIME;
+    private static final int TOTAL_TIME;
+    private static final int FRAME_TIME;
+    private static final int BUFFER;
+    private static final int BUFFER_SIZE;
+    private static final int VOLUME;
+    private static final int LOOP_COUNT;
+    private static final int VIRT_CHANNELS;
+    private static final int VIRT_USED;
+    private static final int SEQUENCE;
+    private static final int CHANNEL_INFO;
+
+    private static final int CHANNEL_SIZE;
+    private static final int CHANNEL_PERIOD;
+    private static final int CHANNEL_POSITION;
+    private static final int CHANNEL_PITCHBEND;
+    private static final int CHANNEL_NOTE;
+    private static final int CHANNEL_INSTRUMENT;
+    private static final int CHANNEL_SAMPLE;
+    private static final int CHANNEL_VOLUME;
+    private static final int CHANNEL_PAN;
+    private static final int CHANNEL_EVENT;
+
+    private static final int EVENT_NOTE;
+    private static final int EVENT_INS;
+    private static final int EVENT_VOL;
+    private static final int EVENT_FXT;
+    private static final int EVENT_FXP;
+    private static final int EVENT_F2T;
+    private static final int EVENT_F2P;
+
+    static {
+        XmpNative.FrameInfo frame = new XmpNative.FrameInfo();
+        SIZE = frame.size();
+        POS = frame.offsetOf("pos");
+        PATTERN = frame.offsetOf("pattern");
+        ROW = frame.offsetOf("row");
+        NUM_ROWS = frame.offsetOf("num_rows");
+        FRAME = frame.offsetOf("frame");
+        SPEED = frame.offsetOf("speed");
+        BPM = frame.offsetOf("bpm");
+        TIME = frame.offsetOf("time");
+        TOTAL_TIME = frame.offsetOf("total_time");
+        FRAME_TIME = frame.offsetOf("frame_time");
+        BUFFER = frame.offsetOf("buffer");
+        BUFFER_SIZE = frame.offsetOf("buffer_size");
+        VOLUME = frame.offsetOf("volume");
+        LOOP_COUNT = frame.offsetOf("loop_count");
+        VIRT_CHANNELS = frame.offsetOf("virt_channels");
+        VIRT_USED = frame.offsetOf("virt_used");
+        SEQUENCE = frame.offsetOf("sequence");
+        CHANNEL_INFO = frame.offsetOf("channel_info");
+
+        XmpNative.ChannelInfo channel = new XmpNative.ChannelInfo();
+        CHANNEL_SIZE = channel.size();
+        CHANNEL_PERIOD = channel.offsetOf("period");
+        CHANNEL_POSITION = channel.offsetOf("position");
+        CHANNEL_PITCHBEND = channel.offsetOf("pitchbend");
+        CHANNEL_NOTE = channel.offsetOf("note");
+        CHANNEL_INSTRUMENT = channel.offsetOf("instrument");
+        CHANNEL_SAMPLE = channel.offsetOf("sample");
+        CHANNEL_VOLUME = channel.offsetOf("volume");
+        CHANNEL_PAN = channel.offsetOf("pan");
+        CHANNEL_EVENT = channel.offsetOf("event");
+
+        XmpNative.Event event = new XmpNative.Event();
+        EVENT_NOTE = event.offsetOf("note");
+        EVENT_INS = event.offsetOf("ins");
+        EVENT_VOL = event.offsetOf("vol");
+        EVENT_FXT = event.offsetOf("fxt");
+        EVENT_FXP = event.offsetOf("fxp");
+        EVENT_F2T = event.offsetOf("f2t");
+        EVENT_F2P = event.offsetOf("f2p");
+    }
+
+    private final Memory memory = new Memory(SIZE);
+    private final ChannelView[] channelViews = new ChannelView[XmpNative.XMP_MAX_CHANNELS];
+    private ChannelView[] channels = new ChannelView[0];
+
+    XmpFrameView() {
+        for(int i = 0; i < channelViews.length; i++) {
+            channelViews[i] = new ChannelView(CHANNEL_INFO + i * CHANNEL_SIZE);
+        }
+    }
+
+    Pointer getMemory() {
+        return memory;
+    }
+
+    @Override
+    public int getPosition() {
+        return memory.getInt(POS);
+    }
+
+    @Override
+    public int getPattern() {
+        return memory.getInt(PATTERN);
+    }
+
+    @Override
+    public int getRow() {
+        return memory.getInt(ROW);
+    }
+
+    @Override
+    public int getRowCount() {
+        return memory.getInt(NUM_ROWS);
+    }
+
+    @Override
+    public int getFrame() {
+        return memory.getInt(FRAME);
+    }
+
+    @Override
+    public int getSpeed() {
+        return memory.getInt(SPEED);
+    }
+
+    @Override
+    public int getBpm() {
+        return memory.getInt(BPM);
+    }
+
+    @Override
+    public int getTime() {
+        return memory.getInt(TIME);
+    }
+
+    @Override
+    public int getFrameTime() {
+        return memory.getInt(FRAME_TIME);
+    }
+
+    @Override
+    public int getEstimatedTime() {
+        return memory.getInt(TOTAL_TIME);
+    }
+
+    @Override
+    public int getVolume() {
+        return memory.getInt(VOLUME);
+    }
+
+    @Override
+    public int getLoopCount() {
+        return memory.getInt(LOOP_COUNT);
+    }
+
+    @Override
+    public int getSequence() {
+        return memory.getInt(SEQUENCE);
+    }
+
+    @Override
+    public int getVirtualChannelsCount() {
+        return memory.getInt(VIRT_CHANNELS);
+    }
+
+    @Override
+    public int getUsedVirtualChannelsCount() {
+        return memory.getInt(VIRT_USED);
+    }
+
+    /**
+     * Returns views of first virt_channels channels, array is reused while channel count stays the same
+     */
+    @Override
+    public Xmp.ChannelInfo[] getChannels() {
+        int count = Math.max(0, Math.min(getVirtualChannelsCount(), channelViews.length));
+
+        if(channels.length != count) {
+            channels = new ChannelView[count];
+            System.arraycopy(channelViews, 0, channels, 0, count);
+        }
+
+        return channels;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return memory.getPointer(BUFFER).getByteArray(0, getBufferSize());
+    }
+
+    @Override
+    public int getBufferSize() {
+        return memory.getInt(BUFFER_SIZE);
+    }
+
+    @Override
+    public int read(byte[] out, int offset, int count) {
+        int toRead = Math.min(getBufferSize(), count);
+        memory.getPointer(BUFFER).read(0, out, offset, toRead);
+        return toRead;
+    }
+
+    private int getUnsignedByte(long offset) {
+        return memory.getByte(offset) & 0xFF;
+    }
+
+    private final class ChannelView implements Xmp.ChannelInfo {
+
+        private final int base;
+        private final EventView event;
+
+        ChannelView(int base) {
+            this.base = base;
+            this.event = new EventView(base + CHANNEL_EVENT);
+        }
+
+        @Override
+        public int getPeriod() {
+            return memory.getInt(base + CHANNEL_PERIOD);
+        }
+
+        @Override
+        public int getPosition() {
+            return memory.getInt(base + CHANNEL_POSITION);
+        }
+
+        @Override
+        public int getPitchBend() {
+            return memory.getShort(base + CHANNEL_PITCHBEND);
+        }
+
+        @Override
+        public int getNote() {
+            return getUnsignedByte(base + CHANNEL_NOTE);
+        }
+
+        @Override
+        public int getInstrumentIndex() {
+            return getUnsignedByte(base + CHANNEL_INSTRUMENT);
+        }
+
+        @Override
+        public int getSampleIndex() {
+            return getUnsignedByte(base + CHANNEL_SAMPLE);
+        }
+
+        @Override
+        public int getVolume() {
+            return getUnsignedByte(base + CHANNEL_VOLUME);
+        }
+
+        @Override
+        public int getPan() {
+            return getUnsignedByte(base + CHANNEL_PAN);
+        }
+
+        @Override
+        public Xmp.Event getEvent() {
+            return event;
+        }
+    }
+
+    private final class EventView implements Xmp.Event {
+
+        private final int base;
+
+        EventView(int base) {
+            this.base = base;
+        }
+
+        @Override
+        public int getNote() {
+            return getUnsignedByte(base + EVENT_NOTE);
+        }
+
+        @Override
+        public int getInstrument() {
+            return getUnsignedByte(base + EVENT_INS);
+        }
+
+        @Override
+        public int getVolume() {
+            return getUnsignedByte(base + EVENT_VOL);
+        }
+
+        @Override
+        public int getPrimaryEffectType() {
+            return getUnsignedByte(base + EVENT_FXT);
+        }
+
+        @Override
+        public int getPrimaryEffectParams() {
+            return getUnsignedByte(base + EVENT_FXP);
+        }
+
+        @Override
+        public int getSecondaryEffectType() {
+            return getUnsignedByte(base + EVENT_F2T);
+        }
+
+        @Override
+        public int getSecondaryEffectParams() {
+            return getUnsignedByte(base + EVENT_F2P);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of nanosecond latencies, similar to HdrHistogram with 2 significant bits less.
+ * Each power of two range is split into 16 buckets, which gives relative error below 6.25%.
+ * Recording doesn't allocate and is safe to call from multiple threads
+ */
+public class XmpLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = getIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+
+        counts.incrementAndGet(getIndex(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long currentMax;
+        while(nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+            // retry until max is updated
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long currentCount = count.get();
+        return currentCount > 0 ? (double) total.get() / currentCount : 0;
+    }
+
+    /**
+     * Returns upper bound of bucket containing requested percentile, in nanoseconds
+     *
+     * @param percentile value from 0 to 100
+     */
+    public long getPercentile(double percentile) {
+        long currentCount = count.get();
+        if(currentCount == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(currentCount * percentile / 100));
+        long seen = 0;
+
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if(seen >= target) {
+                return Math.min(getUpperBound(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    // values below 32 map to themselves, larger values keep their top 5 bits
+    private static int getIndex(long value) {
+        int magnitude = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1);
+        return magnitude * SUB_BUCKETS + (int) (value >>> magnitude);
+    }
+
+    private static long getUpperBound(int index) {
+        int magnitude = index < 2 * SUB_BUCKETS ? 0 : index / SUB_BUCKETS - 1;
+        long lower = (long) (index - magnitude * SUB_BUCKETS) << magnitude;
+        return lower + (1L << magnitude) - 1;
+    }
+}
@@ -0,0 +1,222 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of native calls, can be shared between several contexts.
+ * Attach to context with {@link Xmp#setMetrics(XmpMetrics)}
+ */
+public class XmpMetrics implements XmpMetricsMXBean {
+
+    public static final String DOMAIN = "ru.threedisevenzeror.xmpwrapper";
+
+    // measured native calls
+    public enum Call {
+        PlayBuffer, // xmp_play_buffer
+        PlayFrame, // xmp_play_frame
+        LoadModule, // xmp_load_module and xmp_load_module_from_memory
+        ScanModule, // xmp_scan_module
+        SeekTime // xmp_seek_time
+    }
+
+    private static final Call[] CALLS = Call.values();
+
+    /**
+     * Immutable statistics of single call type, times are in nanoseconds
+     */
+    public static class CallStats {
+
+        private final long count;
+        private final long totalTime;
+        private final double meanTime;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long maxTime;
+
+        CallStats(XmpLatencyHistogram histogram) {
+            this.count = histogram.getCount();
+            this.totalTime = histogram.getTotal();
+            this.meanTime = histogram.getMean();
+            this.p50 = histogram.getPercentile(50);
+            this.p90 = histogram.getPercentile(90);
+            this.p99 = histogram.getPercentile(99);
+            this.p999 = histogram.getPercentile(99.9);
+            this.maxTime = histogram.getMax();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        public double getMeanTime() {
+            return meanTime;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMaxTime() {
+            return maxTime;
+        }
+    }
+
+    /**
+     * Point in time copy of all metrics
+     */
+    public static class Snapshot {
+
+        private final CallStats[] calls;
+        private final long renderedNanos;
+        private final long renderWallNanos;
+
+        Snapshot(CallStats[] calls, long renderedNanos, long renderWallNanos) {
+            this.calls = calls;
+            this.renderedNanos = renderedNanos;
+            this.renderWallNanos = renderWallNanos;
+        }
+
+        public CallStats getCallStats(Call call) {
+            return calls[call.ordinal()];
+        }
+
+        /**
+         * Duration of audio rendered with playBuffer, in milliseconds
+         */
+        public long getRenderedMillis() {
+            return renderedNanos / 1000000;
+        }
+
+        /**
+         * Rendered audio time divided by time spent in xmp_play_buffer,
+         * values close to 1 mean that rendering barely keeps up with playback
+         */
+        public double getRealtimeFactor() {
+            return renderWallNanos > 0 ? (double) renderedNanos / renderWallNanos : 0;
+        }
+    }
+
+    private final XmpLatencyHistogram[] histograms = new XmpLatencyHistogram[CALLS.length];
+    private final AtomicLong renderedNanos = new AtomicLong();
+    private ObjectName objectName;
+
+    public XmpMetrics() {
+        for(int i = 0; i < histograms.length; i++) {
+            histograms[i] = new XmpLatencyHistogram();
+        }
+    }
+
+    public void record(Call call, long nanos) {
+        histograms[call.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records playBuffer call which rendered specified number of sample frames
+     */
+    public void recordRender(long nanos, int frames, int sampleRate) {
+        histograms[Call.PlayBuffer.ordinal()].record(nanos);
+        if(sampleRate > 0) {
+            renderedNanos.addAndGet(frames * 1000000000L / sampleRate);
+        }
+    }
+
+    public XmpLatencyHistogram getHistogram(Call call) {
+        return histograms[call.ordinal()];
+    }
+
+    public Snapshot getSnapshot() {
+        CallStats[] stats = new CallStats[CALLS.length];
+        for(int i = 0; i < stats.length; i++) {
+            stats[i] = new CallStats(histograms[i]);
+        }
+        return new Snapshot(stats, renderedNanos.get(), histograms[Call.PlayBuffer.ordinal()].getTotal());
+    }
+
+    @Override
+    public CallStats getPlayBuffer() {
+        return new CallStats(getHistogram(Call.PlayBuffer));
+    }
+
+    @Override
+    public CallStats getPlayFrame() {
+        return new CallStats(getHistogram(Call.PlayFrame));
+    }
+
+    @Override
+    public CallStats getLoadModule() {
+        return new CallStats(getHistogram(Call.LoadModule));
+    }
+
+    @Override
+    public CallStats getScanModule() {
+        return new CallStats(getHistogram(Call.ScanModule));
+    }
+
+    @Override
+    public CallStats getSeekTime() {
+        return new CallStats(getHistogram(Call.SeekTime));
+    }
+
+    @Override
+    public long getRenderedMillis() {
+        return renderedNanos.get() / 1000000;
+    }
+
+    @Override
+    public double getRealtimeFactor() {
+        long wall = getHistogram(Call.PlayBuffer).getTotal();
+        return wall > 0 ? (double) renderedNanos.get() / wall : 0;
+    }
+
+    @Override
+    public void reset() {
+        for(XmpLatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        renderedNanos.set(0);
+    }
+
+    /**
+     * Registers metrics in platform MBean server under ru.threedisevenzeror.xmpwrapper:type=XmpMetrics,name=[name]
+     */
+    public synchronized void register(String name) throws JMException {
+        if(objectName != null) {
+            throw new InstanceAlreadyExistsException(objectName.toString());
+        }
+
+        ObjectName newName = new ObjectName(DOMAIN + ":type=XmpMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        objectName = newName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if(objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+/**
+ * JMX view of {@link XmpMetrics}
+ */
+public interface XmpMetricsMXBean {
+
+    XmpMetrics.CallStats getPlayBuffer();
+    XmpMetrics.CallStats getPlayFrame();
+    XmpMetrics.CallStats getLoadModule();
+    XmpMetrics.CallStats getScanModule();
+    XmpMetrics.CallStats getSeekTime();
+
+    long getRenderedMillis();
+    double getRealtimeFactor();
+
+    void reset();
+}
@@ -0,0 +1,253 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps bytes of recently loaded modules in memory, keyed by module MD5 from {@link Xmp.ModuleInfo#getMd5()}.
+ * Least recently used modules are evicted when total size exceeds budget.
+ *
+ * Files are also indexed by path, size and modification time, so repeated loads of same file skip disk access.
+ * libxmp depacks compressed files only when loading from path, such files are not cached.
+ */
+public class XmpModuleCache {
+
+    private static class Entry {
+
+        final byte[] data;
+        final List<String> files = new ArrayList<String>(1);
+
+        Entry(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    // file index value of files which can be loaded only by path
+    private static final String PACKED = "";
+    private static final int MAX_PACKED_FILES = 4096;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Map<String, String> fileIndex = new LinkedHashMap<String, String>();
+    private long size;
+    private int packedFiles;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public XmpModuleCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Loads module from cache, or from file if it is not cached yet
+     */
+    public void loadModule(Xmp xmp, String path) throws IOException {
+        File file = new File(path);
+        String fileKey = getFileKey(file);
+        if(isPacked(fileKey)) {
+            xmp.loadModule(path);
+            return;
+        }
+
+        byte[] data = getByFile(fileKey);
+
+        if(data != null) {
+            xmp.loadModule(data);
+            return;
+        }
+
+        data = readFile(file);
+
+        try {
+            xmp.loadModule(data);
+        } catch (Error e) {
+            // packed modules can only be loaded from path, file is remembered to skip reading it next time
+            xmp.loadModule(path);
+            markPacked(fileKey);
+            return;
+        }
+
+        put(xmp.getModuleInfo().getMd5(), data, fileKey);
+    }
+
+    /**
+     * Loads module and caches copy of its bytes, so it can be loaded later with {@link #loadCached(Xmp, byte[])}
+     */
+    public void loadModule(Xmp xmp, byte[] module) {
+        xmp.loadModule(module);
+        put(xmp.getModuleInfo().getMd5(), module.clone(), null);
+    }
+
+    public void loadModule(Xmp xmp, InputStream stream) throws IOException {
+        loadModule(xmp, Xmp.readStream(stream));
+    }
+
+    /**
+     * Loads cached module with specified MD5
+     *
+     * @return false if module is not cached
+     */
+    public boolean loadCached(Xmp xmp, byte[] md5) {
+        byte[] data = get(md5);
+        if(data == null) {
+            return false;
+        }
+        xmp.loadModule(data);
+        return true;
+    }
+
+    public synchronized boolean contains(byte[] md5) {
+        return entries.containsKey(toHex(md5));
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    public synchronized int getModuleCount() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        fileIndex.clear();
+        size = 0;
+        packedFiles = 0;
+    }
+
+    private synchronized boolean isPacked(String fileKey) {
+        return fileIndex.get(fileKey) == PACKED;
+    }
+
+    private synchronized void markPacked(String fileKey) {
+        if(fileIndex.put(fileKey, PACKED) == PACKED) {
+            return;
+        }
+
+        // oldest packed files are forgotten first, they are loaded by path either way
+        if(++packedFiles > MAX_PACKED_FILES) {
+            Iterator<String> iterator = fileIndex.values().iterator();
+            while(iterator.hasNext()) {
+                if(iterator.next() == PACKED) {
+                    iterator.remove();
+                    packedFiles--;
+                    break;
+                }
+            }
+        }
+    }
+
+    private synchronized byte[] get(byte[] md5) {
+        Entry entry = entries.get(toHex(md5));
+        if(entry != null) {
+            hits++;
+            return entry.data;
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized byte[] getByFile(String fileKey) {
+        String key = fileIndex.get(fileKey);
+        Entry entry = key != null ? entries.get(key) : null;
+
+        if(entry != null) {
+            hits++;
+            return entry.data;
+        }
+
+        misses++;
+        return null;
+    }
+
+    private synchronized void put(byte[] md5, byte[] data, String fileKey) {
+        if(data.length > maxBytes) {
+            return;
+        }
+
+        String key = toHex(md5);
+        Entry entry = entries.get(key);
+
+        if(entry == null) {
+            entry = new Entry(data);
+            entries.put(key, entry);
+            size += data.length;
+        }
+
+        if(fileKey != null && !entry.files.contains(fileKey)) {
+            entry.files.add(fileKey);
+            if(fileIndex.put(fileKey, key) == PACKED) {
+                packedFiles--;
+            }
+        }
+
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(size > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            size -= entry.data.length;
+            evictions++;
+
+            for(String file : entry.files) {
+                fileIndex.remove(file);
+            }
+        }
+    }
+
+    private static String getFileKey(File file) throws IOException {
+        return file.getCanonicalPath() + ':' + file.length() + ':' + file.lastModified();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            long length = input.length();
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("File is too large: " + file);
+            }
+
+            byte[] data = new byte[(int) length];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    static String toHex(byte[] data) {
+        StringBuilder builder = new StringBuilder(data.length * 2);
+        for(byte b : data) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
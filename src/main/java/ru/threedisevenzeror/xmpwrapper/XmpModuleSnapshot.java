@@ -0,0 +1,499 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import com.sun.jna.Structure;
+
+/**
+ * Immutable copy of module metadata, read from native structures once and cached by {@link Xmp#getModuleSnapshot()}.
+ * Getters don't allocate, arrays are accessed by index
+ */
+public final class XmpModuleSnapshot {
+
+    public static final class Envelope {
+
+        private final int flags;
+        private final int pointCount;
+        private final int scaling;
+        private final int sustainStart;
+        private final int sustainEnd;
+        private final int loopStart;
+        private final int loopEnd;
+        private final short[] points;
+
+        Envelope(Xmp.Envelope envelope) {
+            this.flags = envelope.getFlags();
+            this.pointCount = envelope.getEnvelopePoints();
+            this.scaling = envelope.getEnvelopeScaling();
+            this.sustainStart = envelope.getSustainStartPoint();
+            this.sustainEnd = envelope.getSustainEndPoint();
+            this.loopStart = envelope.getLoopStartPoint();
+            this.loopEnd = envelope.getLoopEndPoint();
+            this.points = envelope.getPoints().clone();
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getPointCount() {
+            return pointCount;
+        }
+
+        public int getScaling() {
+            return scaling;
+        }
+
+        public int getSustainStartPoint() {
+            return sustainStart;
+        }
+
+        public int getSustainEndPoint() {
+            return sustainEnd;
+        }
+
+        public int getLoopStartPoint() {
+            return loopStart;
+        }
+
+        public int getLoopEndPoint() {
+            return loopEnd;
+        }
+
+        public int getPointTime(int point) {
+            return points[point * 2];
+        }
+
+        public int getPointValue(int point) {
+            return points[point * 2 + 1];
+        }
+    }
+
+    public static final class SubInstrument {
+
+        private final int defaultVolume;
+        private final int globalVolume;
+        private final int pan;
+        private final int transpose;
+        private final int finetune;
+        private final int vibratoWaveform;
+        private final int vibratoDepth;
+        private final int vibratoRate;
+        private final int vibratoSweep;
+        private final int randomVariation;
+        private final int sampleNumber;
+        private final int newNoteAction;
+        private final int duplicateCheckType;
+        private final int duplicateCheckAction;
+        private final int filterCutoff;
+        private final int filterResonance;
+
+        SubInstrument(Xmp.SubInstrument sub) {
+            this.defaultVolume = sub.getDefaultVolume();
+            this.globalVolume = sub.getGlobalVolume();
+            this.pan = sub.getPan();
+            this.transpose = sub.getTranspose();
+            this.finetune = sub.getFinetune();
+            this.vibratoWaveform = sub.getVibratoVaveform();
+            this.vibratoDepth = sub.getVibratoDepth();
+            this.vibratoRate = sub.getVibratoRate();
+            this.vibratoSweep = sub.getVibratoSweep();
+            this.randomVariation = sub.getRandomVariation();
+            this.sampleNumber = sub.getSampleNumber();
+            this.newNoteAction = sub.getNewNoteAction();
+            this.duplicateCheckType = sub.getDuplicateCheckType();
+            this.duplicateCheckAction = sub.getDuplicateCheckAction();
+            this.filterCutoff = sub.getInitialFilterCutoff();
+            this.filterResonance = sub.getInitialFilterResonance();
+        }
+
+        public int getDefaultVolume() {
+            return defaultVolume;
+        }
+
+        public int getGlobalVolume() {
+            return globalVolume;
+        }
+
+        public int getPan() {
+            return pan;
+        }
+
+        public int getTranspose() {
+            return transpose;
+        }
+
+        public int getFinetune() {
+            return finetune;
+        }
+
+        public int getVibratoWaveform() {
+            return vibratoWaveform;
+        }
+
+        public int getVibratoDepth() {
+            return vibratoDepth;
+        }
+
+        public int getVibratoRate() {
+            return vibratoRate;
+        }
+
+        public int getVibratoSweep() {
+            return vibratoSweep;
+        }
+
+        public int getRandomVariation() {
+            return randomVariation;
+        }
+
+        public int getSampleNumber() {
+            return sampleNumber;
+        }
+
+        public int getNewNoteAction() {
+            return newNoteAction;
+        }
+
+        public int getDuplicateCheckType() {
+            return duplicateCheckType;
+        }
+
+        public int getDuplicateCheckAction() {
+            return duplicateCheckAction;
+        }
+
+        public int getInitialFilterCutoff() {
+            return filterCutoff;
+        }
+
+        public int getInitialFilterResonance() {
+            return filterResonance;
+        }
+    }
+
+    public static final class Instrument {
+
+        private final String name;
+        private final int volume;
+        private final int fadeout;
+        private final Envelope amplitudeEnvelope;
+        private final Envelope panEnvelope;
+        private final Envelope frequencyEnvelope;
+        private final byte[] keyInstruments;
+        private final byte[] keyTransposes;
+        private final SubInstrument[] subInstruments;
+
+        Instrument(XmpNative.Instrument instrument) {
+            this.name = instrument.getName();
+            this.volume = instrument.getVolume();
+            this.fadeout = instrument.getFadeout();
+            this.amplitudeEnvelope = new Envelope(instrument.getAmplitudeEnvelope());
+            this.panEnvelope = new Envelope(instrument.getPanEnvelope());
+            this.frequencyEnvelope = new Envelope(instrument.getFrequencyEnvelope());
+
+            Xmp.InstrumentKey[] keys = instrument.getKeys();
+            this.keyInstruments = new byte[keys.length];
+            this.keyTransposes = new byte[keys.length];
+            for(int i = 0; i < keys.length; i++) {
+                keyInstruments[i] = (byte) keys[i].getNumber();
+                keyTransposes[i] = (byte) keys[i].getTranspose();
+            }
+
+            int count = instrument.sub != null ? instrument.getSampleCount() : 0;
+            this.subInstruments = new SubInstrument[count];
+            if(count > 0) {
+                Structure[] subs = instrument.sub.toArray(count);
+                for(int i = 0; i < count; i++) {
+                    subInstruments[i] = new SubInstrument((Xmp.SubInstrument) subs[i]);
+                }
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getVolume() {
+            return volume;
+        }
+
+        public int getFadeout() {
+            return fadeout;
+        }
+
+        public Envelope getAmplitudeEnvelope() {
+            return amplitudeEnvelope;
+        }
+
+        public Envelope getPanEnvelope() {
+            return panEnvelope;
+        }
+
+        public Envelope getFrequencyEnvelope() {
+            return frequencyEnvelope;
+        }
+
+        public int getKeyCount() {
+            return keyInstruments.length;
+        }
+
+        public int getKeyInstrument(int key) {
+            return keyInstruments[key] & 0xFF;
+        }
+
+        public int getKeyTranspose(int key) {
+            return keyTransposes[key];
+        }
+
+        public int getSubInstrumentCount() {
+            return subInstruments.length;
+        }
+
+        public SubInstrument getSubInstrument(int index) {
+            return subInstruments[index];
+        }
+    }
+
+    public static final class Sample {
+
+        private final String name;
+        private final int length;
+        private final int loopStart;
+        private final int loopEnd;
+        private final int flags;
+
+        Sample(Xmp.Sample sample) {
+            this.name = sample.getName();
+            this.length = sample.getLength();
+            this.loopStart = sample.getLoopStart();
+            this.loopEnd = sample.getLoopEnd();
+            this.flags = sample.getFlags();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getLoopStart() {
+            return loopStart;
+        }
+
+        public int getLoopEnd() {
+            return loopEnd;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        /**
+         * Size of sample data in bytes
+         */
+        public int getDataSize() {
+            return (flags & Xmp.Sample.FLAG_16BIT) != 0 ? length * 2 : length;
+        }
+    }
+
+    private final String name;
+    private final String type;
+    private final String comment;
+    private final byte[] md5;
+    private final int volumeScale;
+
+    private final int patternCount;
+    private final int trackCount;
+    private final int channelCount;
+    private final int initialSpeed;
+    private final int initialBpm;
+    private final int restartPosition;
+    private final int globalVolume;
+
+    private final int[] channelPans;
+    private final int[] channelVolumes;
+    private final int[] channelFlags;
+    private final int[] orders;
+    private final int[] sequenceEntryPoints;
+    private final int[] sequenceDurations;
+    private final Instrument[] instruments;
+    private final Sample[] samples;
+    private final long sampleDataSize;
+
+    XmpModuleSnapshot(XmpNative.ModuleInfo info) {
+        XmpNative.Module module = info.mod;
+
+        this.name = module.getName();
+        this.type = module.getType();
+        this.comment = info.getComment();
+        this.md5 = info.getMd5().clone();
+        this.volumeScale = info.getVolumeScale();
+
+        this.patternCount = module.pat;
+        this.trackCount = module.trk;
+        this.channelCount = module.chn;
+        this.initialSpeed = module.spd;
+        this.initialBpm = module.bpm;
+        this.restartPosition = module.rst;
+        this.globalVolume = module.gvl;
+
+        int channels = Math.min(module.chn, module.xxc.length);
+        this.channelPans = new int[channels];
+        this.channelVolumes = new int[channels];
+        this.channelFlags = new int[channels];
+        for(int i = 0; i < channels; i++) {
+            channelPans[i] = module.xxc[i].pan;
+            channelVolumes[i] = module.xxc[i].vol;
+            channelFlags[i] = module.xxc[i].flg;
+        }
+
+        this.orders = new int[module.len];
+        for(int i = 0; i < orders.length; i++) {
+            orders[i] = module.xxo[i].intValue();
+        }
+
+        int sequenceCount = info.seq_data != null ? info.num_sequences : 0;
+        Xmp.Sequence[] sequences = sequenceCount > 0 ? info.getSequences() : new Xmp.Sequence[0];
+        this.sequenceEntryPoints = new int[sequenceCount];
+        this.sequenceDurations = new int[sequenceCount];
+        for(int i = 0; i < sequenceCount; i++) {
+            sequenceEntryPoints[i] = sequences[i].getEntryPoint();
+            sequenceDurations[i] = sequences[i].getDuration();
+        }
+
+        int instrumentCount = module.xxi != null ? module.ins : 0;
+        this.instruments = new Instrument[instrumentCount];
+        if(instrumentCount > 0) {
+            Structure[] structs = module.xxi.toArray(instrumentCount);
+            for(int i = 0; i < instrumentCount; i++) {
+                instruments[i] = new Instrument((XmpNative.Instrument) structs[i]);
+            }
+        }
+
+        int sampleCount = module.xxs != null ? module.smp : 0;
+        this.samples = new Sample[sampleCount];
+        if(sampleCount > 0) {
+            Structure[] structs = module.xxs.toArray(sampleCount);
+            for(int i = 0; i < sampleCount; i++) {
+                samples[i] = new Sample((Xmp.Sample) structs[i]);
+            }
+        }
+
+        long dataSize = 0;
+        for(Sample sample : samples) {
+            dataSize += sample.getDataSize();
+        }
+        this.sampleDataSize = dataSize;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public int getMd5Byte(int index) {
+        return md5[index] & 0xFF;
+    }
+
+    public byte[] getMd5() {
+        return md5.clone();
+    }
+
+    public int getVolumeScale() {
+        return volumeScale;
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getInitialSpeed() {
+        return initialSpeed;
+    }
+
+    public int getInitialBpm() {
+        return initialBpm;
+    }
+
+    public int getRestartPosition() {
+        return restartPosition;
+    }
+
+    public int getGlobalVolume() {
+        return globalVolume;
+    }
+
+    public int getChannelPan(int channel) {
+        return channelPans[channel];
+    }
+
+    public int getChannelVolume(int channel) {
+        return channelVolumes[channel];
+    }
+
+    public int getChannelFlags(int channel) {
+        return channelFlags[channel];
+    }
+
+    /**
+     * Module length in patterns
+     */
+    public int getOrderCount() {
+        return orders.length;
+    }
+
+    public int getOrder(int position) {
+        return orders[position];
+    }
+
+    public int getSequenceCount() {
+        return sequenceEntryPoints.length;
+    }
+
+    public int getSequenceEntryPoint(int sequence) {
+        return sequenceEntryPoints[sequence];
+    }
+
+    public int getSequenceDuration(int sequence) {
+        return sequenceDurations[sequence];
+    }
+
+    public int getInstrumentCount() {
+        return instruments.length;
+    }
+
+    public Instrument getInstrument(int index) {
+        return instruments[index];
+    }
+
+    public int getSampleCount() {
+        return samples.length;
+    }
+
+    public Sample getSample(int index) {
+        return samples[index];
+    }
+
+    /**
+     * Total size of sample data in bytes, memory which isn't allocated when module is loaded without samples
+     */
+    public long getSampleDataSize() {
+        return sampleDataSize;
+    }
+}
@@ -4,6 +4,9 @@ import com.sun.jna.*;
 import com.sun.jna.ptr.ByteByReference;
 import com.sun.jna.ptr.PointerByReference;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -131,6 +134,10 @@ interface XmpNative extends Library {
             return Arrays.asList("note", "ins", "vol", "fxt", "fxp", "f2t", "f2p", "_flag");
         }
 
+        int offsetOf(String field) {
+            return fieldOffset(field);
+        }
+
         @Override
         public int getNote() {
             return note.intValue();
@@ -482,7 +489,30 @@ interface XmpNative extends Library {
 
         @Override
         public byte[] getSampleData() {
-            return data.getByteArray(0, len);
+            if(data == null) {
+                return new byte[0];
+            }
+            return data.getByteArray(0, getDataSize());
+        }
+
+        @Override
+        public ByteBuffer getSampleBuffer() {
+            if(data == null) {
+                return ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder());
+            }
+            return data.getByteBuffer(0, getDataSize()).asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public ShortBuffer getSampleShortBuffer() {
+            if((flg & FLAG_16BIT) == 0) {
+                throw new IllegalStateException("Sample is not 16-bit");
+            }
+            return getSampleBuffer().asShortBuffer();
+        }
+
+        private int getDataSize() {
+            return (flg & FLAG_16BIT) != 0 ? len * 2 : len;
         }
 
         @Override
@@ -717,6 +747,10 @@ interface XmpNative extends Library {
                     "instrument", "sample", "volume", "pan", "reserved", "event");
         }
 
+        int offsetOf(String field) {
+            return fieldOffset(field);
+        }
+
         @Override
         public int getPeriod() {
             return period.intValue();
@@ -793,6 +827,10 @@ interface XmpNative extends Library {
                     "loop_count", "virt_channels", "virt_used", "sequence", "channel_info");
         }
 
+        int offsetOf(String field) {
+            return fieldOffset(field);
+        }
+
         @Override
         public int getPosition() {
             return pos;
@@ -899,6 +937,8 @@ interface XmpNative extends Library {
 
     int xmp_test_module(String path, TestInfo outInfo);
 
+    int xmp_test_module_from_memory(Pointer data, NativeLong length, TestInfo outInfo);
+
     int xmp_load_module(Context context, String path);
 
     void xmp_scan_module(Context context);
@@ -911,12 +951,18 @@ interface XmpNative extends Library {
 
     int xmp_play_buffer(Context context, byte[] buffer, int size, int loopCount);
 
+    int xmp_play_buffer(Context context, Pointer buffer, int size, int loopCount);
+
     void xmp_get_frame_info(Context context, FrameInfo outInfo);
 
+    void xmp_get_frame_info(Context context, Pointer outInfo);
+
     void xmp_end_player(Context context);
 
     void xmp_inject_event(Context context, int channel, Event event);
 
+    void xmp_inject_event(Context context, int channel, Pointer event);
+
     void xmp_get_module_info(Context context, ModuleInfo outInfo);
 
     String[] xmp_get_format_list();
@@ -945,5 +991,7 @@ interface XmpNative extends Library {
 
     int xmp_load_module_from_memory(Context context, byte[] data, NativeLong length);
 
+    int xmp_load_module_from_memory(Context context, Pointer data, NativeLong length);
+
     int xmp_load_module_from_file(Context context, Pointer fileStream, NativeLong length);
 }
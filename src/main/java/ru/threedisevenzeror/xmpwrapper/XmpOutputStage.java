@@ -0,0 +1,330 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Renders module to float32 or 24-bit stereo at any sample rate, including rates above {@link XmpNative#XMP_MAX_SRATE}.
+ * Module is mixed by libxmp as 16-bit stereo at supported rate, converted to float
+ * and resampled with polyphase windowed sinc filter.
+ *
+ * Samples are processed as separate left and right arrays with unit stride loops
+ */
+public class XmpOutputStage {
+
+    public enum Encoding {
+        Float32(4),
+        Int24(3);
+
+        private final int sampleSize;
+
+        Encoding(int sampleSize) {
+            this.sampleSize = sampleSize;
+        }
+
+        public int getSampleSize() {
+            return sampleSize;
+        }
+    }
+
+    private static final int DEFAULT_TAPS = 32;
+    // phase count limit for ratios which don't reduce to small fraction, closest preceding phase is used for them
+    private static final int MAX_PHASES = 512;
+    // frames rendered by libxmp at once
+    private static final int BLOCK_SIZE = 4096;
+    // passband edge relative to lower of two nyquist frequencies
+    private static final double CUTOFF = 0.95;
+    private static final float INT24_SCALE = 8388607f;
+
+    private final Xmp xmp;
+    private final int sourceRate;
+    private final int targetRate;
+    private final Encoding encoding;
+
+    // resampling ratio targetRate / sourceRate, reduced
+    private final int up;
+    private final int down;
+    private final int phases;
+    private final int taps;
+    private final float[] filter;
+
+    private final ShortBuffer block;
+    private float[] left;
+    private float[] right;
+    private int count;
+    // position of next output frame in input arrays, in units of 1/up input frames
+    private long position;
+
+    private int loopCount;
+    private boolean ended;
+    private boolean drained;
+    private float[] scratch;
+
+    /**
+     * Starts player on context with loaded module, libxmp mixes at target rate if it is supported,
+     * otherwise at 48000 or 44100, whichever divides target rate, or 48000
+     */
+    public XmpOutputStage(Xmp xmp, int targetRate, Encoding encoding) {
+        this(xmp, chooseSourceRate(targetRate), targetRate, encoding, DEFAULT_TAPS);
+    }
+
+    /**
+     * @param sourceRate rate libxmp mixes at
+     * @param taps filter length per phase, higher is sharper and slower, rounded up to even
+     */
+    public XmpOutputStage(Xmp xmp, int sourceRate, int targetRate, Encoding encoding, int taps) {
+        if(sourceRate < XmpNative.XMP_MIN_SRATE || sourceRate > XmpNative.XMP_MAX_SRATE) {
+            throw new IllegalArgumentException("Unsupported source rate: " + sourceRate);
+        }
+        if(targetRate <= 0) {
+            throw new IllegalArgumentException("Invalid target rate: " + targetRate);
+        }
+        if(taps <= 0) {
+            throw new IllegalArgumentException("Invalid filter length: " + taps);
+        }
+
+        this.xmp = xmp;
+        this.sourceRate = sourceRate;
+        this.targetRate = targetRate;
+        this.encoding = encoding;
+
+        int divisor = gcd(sourceRate, targetRate);
+        this.up = targetRate / divisor;
+        this.down = sourceRate / divisor;
+
+        if(up == down) {
+            // unit filter, output is converted input
+            this.phases = 1;
+            this.taps = 2;
+            this.filter = new float[] { 1f, 0f };
+        } else {
+            this.phases = Math.min(up, MAX_PHASES);
+            this.taps = taps + (taps & 1);
+            this.filter = createFilter(phases, this.taps, CUTOFF * Math.min(1.0, (double) up / down));
+        }
+
+        this.block = ByteBuffer.allocateDirect(BLOCK_SIZE * 4).order(ByteOrder.nativeOrder()).asShortBuffer();
+        this.left = new float[BLOCK_SIZE + this.taps];
+        this.right = new float[BLOCK_SIZE + this.taps];
+
+        // history before first sample is silence
+        this.count = this.taps / 2 - 1;
+        this.position = (long) count * up;
+
+        xmp.startPlayer(sourceRate, 0);
+    }
+
+    private static int chooseSourceRate(int targetRate) {
+        if(targetRate <= XmpNative.XMP_MAX_SRATE) {
+            return Math.max(targetRate, XmpNative.XMP_MIN_SRATE);
+        } else if(targetRate % 44100 == 0) {
+            return 44100;
+        }
+        return 48000;
+    }
+
+    private static int gcd(int a, int b) {
+        while(b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Windowed sinc filter, taps of each phase are stored together and normalized to unity gain
+     */
+    private static float[] createFilter(int phases, int taps, double cutoff) {
+        float[] result = new float[phases * taps];
+        int half = taps / 2;
+
+        for(int phase = 0; phase < phases; phase++) {
+            double sum = 0;
+            double[] values = new double[taps];
+
+            for(int tap = 0; tap < taps; tap++) {
+                // distance from output point to input sample, in input frames
+                double distance = (double) phase / phases + half - 1 - tap;
+                double x = Math.PI * cutoff * distance;
+                double sinc = x == 0 ? 1 : Math.sin(x) / x;
+                // blackman window over [-half, half]
+                double w = (distance + half) / (2.0 * half);
+                double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * w) + 0.08 * Math.cos(4 * Math.PI * w);
+                values[tap] = sinc * window;
+                sum += values[tap];
+            }
+
+            for(int tap = 0; tap < taps; tap++) {
+                result[phase * taps + tap] = (float) (values[tap] / sum);
+            }
+        }
+
+        return result;
+    }
+
+    public void setLoopCount(int loopCount) {
+        this.loopCount = loopCount;
+    }
+
+    public int getSourceRate() {
+        return sourceRate;
+    }
+
+    public int getTargetRate() {
+        return targetRate;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Size of one stereo frame in output encoding
+     */
+    public int getFrameSize() {
+        return encoding.getSampleSize() * 2;
+    }
+
+    /**
+     * Renders up to frames of interleaved stereo float samples, in range from -1 to 1
+     *
+     * @return number of rendered frames, less than requested only when module ended
+     */
+    public int render(float[] output, int offset, int frames) {
+        if(offset < 0 || frames < 0 || offset + frames * 2 > output.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int half = taps / 2;
+        int rendered = 0;
+
+        while(rendered < frames) {
+            int index = (int) (position / up);
+            int start = index - half + 1;
+
+            if(start + taps > count) {
+                if(!fill(start)) {
+                    break;
+                }
+                continue;
+            }
+
+            int remainder = (int) (position % up);
+            int phase = phases == up ? remainder : (int) ((long) remainder * phases / up);
+            int tapOffset = phase * taps;
+
+            float l = 0;
+            float r = 0;
+            for(int tap = 0; tap < taps; tap++) {
+                float coefficient = filter[tapOffset + tap];
+                l += left[start + tap] * coefficient;
+                r += right[start + tap] * coefficient;
+            }
+
+            output[offset++] = l;
+            output[offset++] = r;
+            position += down;
+            rendered++;
+        }
+
+        return rendered;
+    }
+
+    /**
+     * Renders into remaining part of buffer in output encoding, using buffer byte order.
+     * Buffer position is advanced by rendered frames
+     *
+     * @return false if module ended
+     */
+    public boolean render(ByteBuffer output) {
+        int frames = output.remaining() / getFrameSize();
+        if(scratch == null || scratch.length < frames * 2) {
+            scratch = new float[frames * 2];
+        }
+
+        int rendered = render(scratch, 0, frames);
+        int samples = rendered * 2;
+
+        if(encoding == Encoding.Float32) {
+            for(int i = 0; i < samples; i++) {
+                output.putFloat(scratch[i]);
+            }
+        } else {
+            boolean bigEndian = output.order() == ByteOrder.BIG_ENDIAN;
+            for(int i = 0; i < samples; i++) {
+                float sample = scratch[i];
+                int value = (int) ((sample > 1f ? 1f : sample < -1f ? -1f : sample) * INT24_SCALE);
+                if(bigEndian) {
+                    output.put((byte) (value >> 16));
+                    output.put((byte) (value >> 8));
+                    output.put((byte) value);
+                } else {
+                    output.put((byte) value);
+                    output.put((byte) (value >> 8));
+                    output.put((byte) (value >> 16));
+                }
+            }
+        }
+
+        return rendered == frames;
+    }
+
+    /**
+     * Drops input before start and appends next rendered block, or silence after module ended
+     *
+     * @return false if there is no more input
+     */
+    private boolean fill(int start) {
+        if(drained) {
+            return false;
+        }
+
+        // when downsampling, start can be past buffered input, rest of skipped input is dropped by next call
+        int discard = Math.min(start, count);
+        int keep = count - discard;
+        System.arraycopy(left, discard, left, 0, keep);
+        System.arraycopy(right, discard, right, 0, keep);
+        count = keep;
+        position -= (long) discard * up;
+
+        if(ended) {
+            // filter tail is flushed with silence
+            int pad = taps / 2;
+            ensureCapacity(count + pad);
+            for(int i = 0; i < pad; i++) {
+                left[count + i] = 0;
+                right[count + i] = 0;
+            }
+            count += pad;
+            drained = true;
+            return true;
+        }
+
+        block.clear();
+        if(!xmp.playBuffer(block, loopCount)) {
+            ended = true;
+            return true;
+        }
+
+        ensureCapacity(count + BLOCK_SIZE);
+        for(int i = 0; i < BLOCK_SIZE; i++) {
+            left[count + i] = block.get(i * 2) * (1f / 32768f);
+            right[count + i] = block.get(i * 2 + 1) * (1f / 32768f);
+        }
+        count += BLOCK_SIZE;
+        return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(left.length < capacity) {
+            float[] newLeft = new float[capacity];
+            float[] newRight = new float[capacity];
+            System.arraycopy(left, 0, newLeft, 0, count);
+            System.arraycopy(right, 0, newRight, 0, count);
+            left = newLeft;
+            right = newRight;
+        }
+    }
+}
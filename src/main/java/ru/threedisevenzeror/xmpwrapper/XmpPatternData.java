@@ -0,0 +1,173 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * Columnar copy of all pattern data of module. Event fields are stored in parallel arrays,
+ * one entry per cell, cells of each pattern are stored row by row, see {@link #getCellIndex(int, int, int)}.
+ * Returned arrays are not copied and should not be modified
+ */
+public class XmpPatternData {
+
+    private static final int EVENT_SIZE = 8;
+    // xmp_track is int rows followed by xmp_event array
+    private static final int TRACK_EVENTS_OFFSET = 4;
+    // xmp_pattern is int rows followed by int index array
+    private static final int PATTERN_INDEX_OFFSET = 4;
+
+    private final int channels;
+    private final int[] rows;
+    private final int[] patternOffsets;
+    private final int[] orders;
+
+    private final byte[] notes;
+    private final byte[] instruments;
+    private final byte[] volumes;
+    private final byte[] effectTypes;
+    private final byte[] effectParams;
+    private final byte[] secondaryEffectTypes;
+    private final byte[] secondaryEffectParams;
+
+    private XmpPatternData(int channels, int[] rows, int[] patternOffsets, int[] orders, int cellCount) {
+        this.channels = channels;
+        this.rows = rows;
+        this.patternOffsets = patternOffsets;
+        this.orders = orders;
+        this.notes = new byte[cellCount];
+        this.instruments = new byte[cellCount];
+        this.volumes = new byte[cellCount];
+        this.effectTypes = new byte[cellCount];
+        this.effectParams = new byte[cellCount];
+        this.secondaryEffectTypes = new byte[cellCount];
+        this.secondaryEffectParams = new byte[cellCount];
+    }
+
+    static XmpPatternData read(XmpNative.Module module) {
+        int channels = module.chn;
+        int patternCount = module.pat;
+        Pointer patterns = module.xxp.getPointer();
+        Pointer tracks = module.xxt.getPointer();
+
+        // each track is read from native memory once, patterns often share tracks
+        byte[][] trackEvents = new byte[module.trk][];
+        int[] rows = new int[patternCount];
+        int[][] trackIndices = new int[patternCount][];
+        int[] patternOffsets = new int[patternCount];
+        int cellCount = 0;
+
+        for(int p = 0; p < patternCount; p++) {
+            Pointer pattern = patterns.getPointer((long) p * Native.POINTER_SIZE);
+            rows[p] = pattern.getInt(0);
+            trackIndices[p] = pattern.getIntArray(PATTERN_INDEX_OFFSET, channels);
+            patternOffsets[p] = cellCount;
+            cellCount += rows[p] * channels;
+        }
+
+        int[] orders = new int[module.len];
+        for(int i = 0; i < orders.length; i++) {
+            orders[i] = module.xxo[i].intValue();
+        }
+
+        XmpPatternData data = new XmpPatternData(channels, rows, patternOffsets, orders, cellCount);
+
+        for(int p = 0; p < patternCount; p++) {
+            for(int c = 0; c < channels; c++) {
+                int trackIndex = trackIndices[p][c];
+                if(trackIndex < 0 || trackIndex >= trackEvents.length) {
+                    continue;
+                }
+
+                byte[] events = trackEvents[trackIndex];
+                if(events == null) {
+                    Pointer track = tracks.getPointer((long) trackIndex * Native.POINTER_SIZE);
+                    events = track.getByteArray(TRACK_EVENTS_OFFSET, track.getInt(0) * EVENT_SIZE);
+                    trackEvents[trackIndex] = events;
+                }
+
+                data.copyTrack(p, c, events);
+            }
+        }
+
+        return data;
+    }
+
+    private void copyTrack(int pattern, int channel, byte[] events) {
+        int rowCount = Math.min(rows[pattern], events.length / EVENT_SIZE);
+        int cell = patternOffsets[pattern] + channel;
+
+        for(int row = 0; row < rowCount; row++, cell += channels) {
+            int event = row * EVENT_SIZE;
+            notes[cell] = events[event];
+            instruments[cell] = events[event + 1];
+            volumes[cell] = events[event + 2];
+            effectTypes[cell] = events[event + 3];
+            effectParams[cell] = events[event + 4];
+            secondaryEffectTypes[cell] = events[event + 5];
+            secondaryEffectParams[cell] = events[event + 6];
+        }
+    }
+
+    public int getChannelCount() {
+        return channels;
+    }
+
+    public int getPatternCount() {
+        return rows.length;
+    }
+
+    public int getRowCount(int pattern) {
+        return rows[pattern];
+    }
+
+    /**
+     * Order list, contains module length entries
+     */
+    public int[] getOrders() {
+        return orders;
+    }
+
+    /**
+     * Returns index of cell in event arrays
+     */
+    public int getCellIndex(int pattern, int row, int channel) {
+        return patternOffsets[pattern] + row * channels + channel;
+    }
+
+    /**
+     * Total number of cells in all patterns
+     */
+    public int getCellCount() {
+        return notes.length;
+    }
+
+    // Event values are unsigned, use value & 0xFF
+
+    public byte[] getNotes() {
+        return notes;
+    }
+
+    public byte[] getInstruments() {
+        return instruments;
+    }
+
+    public byte[] getVolumes() {
+        return volumes;
+    }
+
+    public byte[] getPrimaryEffectTypes() {
+        return effectTypes;
+    }
+
+    public byte[] getPrimaryEffectParams() {
+        return effectParams;
+    }
+
+    public byte[] getSecondaryEffectTypes() {
+        return secondaryEffectTypes;
+    }
+
+    public byte[] getSecondaryEffectParams() {
+        return secondaryEffectParams;
+    }
+}
@@ -0,0 +1,16 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of rendered PCM data
+ */
+public interface XmpPcmSink extends Closeable {
+
+    /**
+     * Consumes all remaining bytes of buffer
+     */
+    void write(ByteBuffer data) throws IOException;
+}
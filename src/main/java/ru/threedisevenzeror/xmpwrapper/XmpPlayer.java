@@ -0,0 +1,339 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import com.sun.jna.Memory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Realtime player, renders module on dedicated high priority thread into SourceDataLine.
+ * Line buffer is sized to target latency and rendering stays ahead of playback by up to that amount.
+ * Control methods only queue commands, which are applied by render thread between chunks,
+ * commands which fail are reported by {@link #getCommandError()}
+ */
+public class XmpPlayer implements Closeable {
+
+    private static final int EVENT_QUEUE_SIZE = 256;
+    // chunk grows back after this many chunks without underruns
+    private static final int STABLE_CHUNKS = 64;
+
+    private final Xmp xmp;
+    private final int sampleRate;
+    private final int format;
+    private final int targetLatency;
+    private final AudioFormat audioFormat;
+    private final int frameSize;
+    private final XmpEventQueue events = new XmpEventQueue(EVENT_QUEUE_SIZE);
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+
+    private SourceDataLine line;
+    private Thread thread;
+    private int loopCount;
+    private volatile boolean running;
+    private volatile boolean finished;
+    private volatile Throwable error;
+    private volatile Throwable commandError;
+    private volatile long failedCommands;
+    private volatile long underruns;
+    private volatile int outputLatency;
+    private volatile int chunkSize;
+
+    /**
+     * @param xmp context with loaded module, player takes control over it until closed
+     * @param targetLatency desired delay between rendering and hearing audio, in milliseconds
+     */
+    public XmpPlayer(Xmp xmp, int sampleRate, int targetLatency) {
+        this(xmp, sampleRate, 0, targetLatency);
+    }
+
+    public XmpPlayer(Xmp xmp, int sampleRate, int format, int targetLatency) {
+        if(targetLatency <= 0) {
+            throw new IllegalArgumentException("Invalid latency: " + targetLatency);
+        }
+
+        this.xmp = xmp;
+        this.sampleRate = sampleRate;
+        this.format = format;
+        this.targetLatency = targetLatency;
+        this.audioFormat = XmpAudioInputStream.createFormat(sampleRate, format);
+        this.frameSize = Xmp.getFrameSize(format);
+    }
+
+    public void setLoopCount(int loopCount) {
+        this.loopCount = loopCount;
+    }
+
+    public synchronized void start() throws LineUnavailableException {
+        start(AudioSystem.getSourceDataLine(audioFormat));
+    }
+
+    /**
+     * Starts playback on specified line, line should be closed
+     */
+    public synchronized void start(SourceDataLine line) throws LineUnavailableException {
+        if(thread != null) {
+            throw new IllegalStateException("Player is already started");
+        }
+
+        int bufferSize = toBytes(targetLatency);
+        line.open(audioFormat, bufferSize);
+
+        this.line = line;
+        xmp.startPlayer(sampleRate, format);
+        xmp.setEventQueue(events);
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                renderLoop();
+            }
+        }, "XmpPlayer");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops playback and waits for render thread to finish, module stays loaded
+     */
+    @Override
+    public synchronized void close() {
+        if(thread == null) {
+            return;
+        }
+
+        running = false;
+        boolean interrupted = false;
+        while(thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        thread = null;
+        line.close();
+        xmp.setEventQueue(null);
+        xmp.endPlayer();
+
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void seekTime(final int milliseconds) {
+        commands.add(new Runnable() {
+            @Override
+            public void run() {
+                xmp.seekTime(milliseconds);
+            }
+        });
+    }
+
+    public void setPosition(final int position) {
+        commands.add(new Runnable() {
+            @Override
+            public void run() {
+                xmp.setPosition(position);
+            }
+        });
+    }
+
+    public void muteChannel(final int channel, final boolean mute) {
+        commands.add(new Runnable() {
+            @Override
+            public void run() {
+                xmp.muteChannel(channel, mute);
+            }
+        });
+    }
+
+    public void setChannelVolume(final int channel, final int volume) {
+        commands.add(new Runnable() {
+            @Override
+            public void run() {
+                xmp.setChannelVolume(channel, volume);
+            }
+        });
+    }
+
+    /**
+     * Sets master volume, from 0 to 100
+     */
+    public void setVolume(final int volume) {
+        commands.add(new Runnable() {
+            @Override
+            public void run() {
+                xmp.setParam(Xmp.Parameter.Volume, volume);
+            }
+        });
+    }
+
+    /**
+     * Queues event, it is injected before next rendered chunk.
+     * Several events for same channel are injected one per chunk, in order
+     *
+     * @return false if too many events are queued
+     */
+    public boolean injectEvent(int channel, int note, int instrument, int volume,
+                               int primaryEffect, int primaryEffectParams,
+                               int secondaryEffect, int secondaryEffectParams) {
+        return events.offer(channel, note, instrument, volume,
+                primaryEffect, primaryEffectParams, secondaryEffect, secondaryEffectParams);
+    }
+
+    public boolean isPlaying() {
+        return running && !finished;
+    }
+
+    /**
+     * Returns true when module reached its end
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns error which stopped playback, or null. Player is finished when it is set
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Returns error of last control command which failed, or null.
+     * Failed commands don't stop playback, they are just not applied
+     */
+    public Throwable getCommandError() {
+        return commandError;
+    }
+
+    /**
+     * Number of control commands which failed since player was created
+     */
+    public long getFailedCommandCount() {
+        return failedCommands;
+    }
+
+    /**
+     * Number of times line buffer was completely drained before next chunk was written
+     */
+    public long getUnderrunCount() {
+        return underruns;
+    }
+
+    /**
+     * Amount of audio written but not yet played, in milliseconds
+     */
+    public int getOutputLatency() {
+        return outputLatency;
+    }
+
+    /**
+     * Current render chunk size in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    private void renderLoop() {
+        int bufferSize = line.getBufferSize();
+        // rendering in quarters of buffer keeps it at least 3/4 full
+        int maxChunk = alignToFrame(Math.max(frameSize, bufferSize / 4));
+        int minChunk = alignToFrame(Math.max(frameSize, toBytes(1)));
+        int chunk = maxChunk;
+        int stableChunks = 0;
+
+        Memory memory = new Memory(maxChunk);
+        byte[] output = new byte[maxChunk];
+        boolean started = false;
+
+        try {
+            while(running) {
+                runCommands();
+
+                int rendered = chunk;
+                if(!xmp.playBuffer(memory, 0, rendered, loopCount)) {
+                    finished = true;
+                    line.drain();
+                    break;
+                }
+                memory.read(0, output, 0, rendered);
+
+                // empty line buffer means playback ran dry before this chunk was ready
+                int available = line.available();
+                if(started && available >= bufferSize) {
+                    underruns++;
+                    stableChunks = 0;
+                    chunk = Math.max(minChunk, alignToFrame(chunk / 2));
+                } else if(++stableChunks >= STABLE_CHUNKS && chunk < maxChunk) {
+                    stableChunks = 0;
+                    chunk = Math.min(maxChunk, chunk * 2);
+                }
+
+                chunkSize = chunk;
+                outputLatency = toMillis(bufferSize - available);
+                line.write(output, 0, rendered);
+
+                if(!started) {
+                    started = true;
+                    line.start();
+                }
+            }
+        } catch (RuntimeException e) {
+            error = e;
+            finished = true;
+        } catch (Error e) {
+            error = e;
+            finished = true;
+            if(e instanceof VirtualMachineError) {
+                throw e;
+            }
+        } finally {
+            line.stop();
+            line.flush();
+            outputLatency = 0;
+        }
+    }
+
+    private void runCommands() {
+        Runnable command;
+        while((command = commands.poll()) != null) {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                // invalid control command shouldn't stop playback
+                commandFailed(e);
+            } catch (Error e) {
+                if(e instanceof VirtualMachineError) {
+                    throw e;
+                }
+                commandFailed(e);
+            }
+        }
+    }
+
+    // written only by render thread
+    private void commandFailed(Throwable e) {
+        commandError = e;
+        failedCommands++;
+    }
+
+    private int alignToFrame(int bytes) {
+        return bytes - bytes % frameSize;
+    }
+
+    private int toBytes(int milliseconds) {
+        return alignToFrame((int) ((long) milliseconds * sampleRate / 1000 * frameSize));
+    }
+
+    private int toMillis(int bytes) {
+        return (int) ((long) bytes * 1000 / ((long) sampleRate * frameSize));
+    }
+}
@@ -0,0 +1,244 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of reusable contexts, avoids context creation and destruction for each played module.
+ * Returned contexts are reset to their initial state, contexts idle for longer
+ * than idle timeout are freed on next pool access or {@link #evictIdle()} call
+ */
+public class XmpPool implements Closeable {
+
+    private static class IdleContext {
+
+        final Xmp xmp;
+        final long releaseTime;
+
+        IdleContext(Xmp xmp, long releaseTime) {
+            this.xmp = xmp;
+            this.releaseTime = releaseTime;
+        }
+    }
+
+    private final int maxSize;
+    private final long idleTimeout;
+    private final Xmp.Binding binding;
+
+    // most recently returned contexts are at head
+    private final ArrayDeque<IdleContext> idle = new ArrayDeque<IdleContext>();
+    private final Set<Xmp> leased = Collections.newSetFromMap(new IdentityHashMap<Xmp, Boolean>());
+    private int creating;
+    // contexts which are released but not yet reset, they still count towards max size
+    private int resetting;
+    private boolean closed;
+
+    public XmpPool(int maxSize) {
+        this(0, maxSize, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param initialSize number of contexts created up front
+     * @param maxSize max number of contexts, both idle and leased
+     * @param idleTimeout time after which unused context is freed
+     */
+    public XmpPool(int initialSize, int maxSize, long idleTimeout, TimeUnit unit) {
+        this(initialSize, maxSize, idleTimeout, unit, Xmp.getDefaultBinding());
+    }
+
+    public XmpPool(int initialSize, int maxSize, long idleTimeout, TimeUnit unit, Xmp.Binding binding) {
+        if(maxSize <= 0 || initialSize < 0 || initialSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: " + initialSize + "/" + maxSize);
+        }
+
+        this.maxSize = maxSize;
+        this.idleTimeout = unit.toNanos(idleTimeout);
+        this.binding = binding;
+
+        long now = System.nanoTime();
+        for(int i = 0; i < initialSize; i++) {
+            idle.push(new IdleContext(new Xmp(binding), now));
+        }
+    }
+
+    /**
+     * Takes context from pool, waits until one is returned if pool is exhausted
+     */
+    public Xmp acquire() throws InterruptedException {
+        Xmp xmp = tryAcquire(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if(xmp == null) {
+            throw new IllegalStateException("Pool is closed");
+        }
+        return xmp;
+    }
+
+    /**
+     * Takes context from pool, or returns null if none became available within timeout
+     */
+    public Xmp tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        List<IdleContext> evicted = Collections.emptyList();
+        Xmp xmp = null;
+        boolean reserved = false;
+
+        try {
+            synchronized (this) {
+                evicted = evictIdleLocked(System.nanoTime());
+
+                while(!closed) {
+                    if(!idle.isEmpty()) {
+                        xmp = idle.pop().xmp;
+                        leased.add(xmp);
+                        break;
+                    }
+
+                    if(leased.size() + creating + resetting < maxSize) {
+                        creating++;
+                        reserved = true;
+                        break;
+                    }
+
+                    if(remaining <= 0) {
+                        break;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    remaining = deadline - System.nanoTime();
+                }
+            }
+        } finally {
+            closeAll(evicted);
+        }
+
+        if(reserved) {
+            // native allocation is done outside of lock
+            try {
+                xmp = new Xmp(binding);
+            } finally {
+                synchronized (this) {
+                    creating--;
+                    if(xmp != null) {
+                        leased.add(xmp);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        return xmp;
+    }
+
+    /**
+     * Returns context to pool, playing module is stopped and released, event queue, metrics
+     * and changed player parameters are reset, so next lessee gets context in its initial state
+     */
+    public void release(Xmp xmp) {
+        synchronized (this) {
+            if(!leased.remove(xmp)) {
+                throw new IllegalArgumentException("Context is not leased from this pool");
+            }
+            resetting++;
+        }
+
+        boolean pooled = false;
+        try {
+            // contexts whose state can't be fully reset are freed instead of reused
+            boolean reusable = !xmp.isClosed() && xmp.resetState();
+
+            synchronized (this) {
+                if(reusable && !closed) {
+                    idle.push(new IdleContext(xmp, System.nanoTime()));
+                    pooled = true;
+                    resetting--;
+                    notifyAll();
+                }
+            }
+
+            if(!pooled) {
+                xmp.close();
+            }
+        } finally {
+            if(!pooled) {
+                synchronized (this) {
+                    resetting--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Frees contexts which were idle for longer than idle timeout
+     */
+    public void evictIdle() {
+        List<IdleContext> evicted;
+        synchronized (this) {
+            evicted = evictIdleLocked(System.nanoTime());
+        }
+        closeAll(evicted);
+    }
+
+    public synchronized int getLeasedCount() {
+        return leased.size();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Frees all idle contexts, leased contexts are freed when returned
+     */
+    @Override
+    public void close() {
+        List<IdleContext> evicted;
+        synchronized (this) {
+            closed = true;
+            evicted = new ArrayList<IdleContext>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        closeAll(evicted);
+    }
+
+    private List<IdleContext> evictIdleLocked(long now) {
+        List<IdleContext> evicted = null;
+        Iterator<IdleContext> iterator = idle.descendingIterator();
+
+        while(iterator.hasNext()) {
+            IdleContext context = iterator.next();
+            if(now - context.releaseTime < idleTimeout) {
+                break;
+            }
+
+            iterator.remove();
+            if(evicted == null) {
+                evicted = new ArrayList<IdleContext>();
+            }
+            evicted.add(context);
+        }
+
+        if(evicted == null) {
+            return Collections.emptyList();
+        }
+        return evicted;
+    }
+
+    private static void closeAll(List<IdleContext> contexts) {
+        for(IdleContext context : contexts) {
+            context.xmp.close();
+        }
+    }
+}
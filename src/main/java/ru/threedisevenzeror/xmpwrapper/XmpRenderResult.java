@@ -0,0 +1,27 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+/**
+ * Outcome of one offline render job, common part of renderer results
+ */
+public abstract class XmpRenderResult {
+
+    private final long renderedBytes;
+    private final Throwable error;
+
+    XmpRenderResult(long renderedBytes, Throwable error) {
+        this.renderedBytes = renderedBytes;
+        this.error = error;
+    }
+
+    public long getRenderedBytes() {
+        return renderedBytes;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+}
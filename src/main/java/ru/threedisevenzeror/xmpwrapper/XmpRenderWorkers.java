@@ -0,0 +1,174 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Worker loop shared by offline renderers.
+ * Jobs are taken by index from shared counter, each worker thread owns one context and one direct buffer.
+ * Every index gets either {@link Job#render} or {@link Job#fail} call, so renderers can return result for each job
+ */
+final class XmpRenderWorkers {
+
+    interface Job {
+
+        /**
+         * Renders job with specified index, errors are expected to be stored in job result
+         */
+        void render(Xmp xmp, ByteBuffer buffer, int index);
+
+        /**
+         * Called for job which couldn't be rendered, because worker failed to set up its context
+         * or render call itself threw
+         */
+        void fail(int index, Throwable error);
+    }
+
+    private XmpRenderWorkers() {
+    }
+
+    /**
+     * Checks buffer size and rounds it down to whole frames
+     *
+     * @throws IllegalArgumentException if buffer can't hold single frame
+     */
+    static int getBufferSize(int bufferSize, int format) {
+        int frameSize = Xmp.getFrameSize(format);
+        if(bufferSize < frameSize) {
+            throw new IllegalArgumentException("Buffer size is smaller than frame: " + bufferSize);
+        }
+        return bufferSize - bufferSize % frameSize;
+    }
+
+    /**
+     * Runs jobs from 0 to count - 1 on up to threads contexts and waits for all of them
+     *
+     * @param bufferSize size of direct buffer of each worker, multiple of frame size
+     * @param module module loaded into every context before its first job, or null to leave contexts empty
+     * @param loaded context with module already loaded, used by first worker instead of new one, or null.
+     *               It is closed when worker is done, same as contexts created here
+     */
+    static void run(int threads, final int count, final int bufferSize, final byte[] module, Xmp loaded,
+                    final Job job) throws InterruptedException {
+
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final AtomicReference<Throwable> setupError = new AtomicReference<Throwable>();
+        final AtomicReference<Xmp> firstContext = new AtomicReference<Xmp>(loaded);
+        final AtomicReference<VirtualMachineError> fatalError = new AtomicReference<VirtualMachineError>();
+        int workers = Math.min(threads, count);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers));
+
+        for(int i = 0; i < workers; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work();
+                    } catch (VirtualMachineError e) {
+                        fatalError.compareAndSet(null, e);
+                        throw e;
+                    }
+                }
+
+                private void work() {
+                    Xmp xmp = firstContext.getAndSet(null);
+                    ByteBuffer buffer;
+
+                    try {
+                        if(xmp == null) {
+                            xmp = new Xmp();
+                            if(module != null) {
+                                xmp.loadModule(module);
+                            }
+                        }
+                        buffer = ByteBuffer.allocateDirect(bufferSize);
+                    } catch (Throwable e) {
+                        // jobs are left to other workers, those nobody takes are failed after all workers finish
+                        setupError.compareAndSet(null, failure(e));
+                        if(xmp != null) {
+                            xmp.close();
+                        }
+                        return;
+                    }
+
+                    try {
+                        int index;
+                        while((index = nextIndex.getAndIncrement()) < count) {
+                            try {
+                                job.render(xmp, buffer, index);
+                            } catch (Throwable e) {
+                                job.fail(index, failure(e));
+                            }
+                        }
+                    } finally {
+                        xmp.close();
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        try {
+            while(!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // waiting for all jobs
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+
+        // context wasn't taken if there were no workers
+        Xmp unused = firstContext.getAndSet(null);
+        if(unused != null) {
+            unused.close();
+        }
+
+        if(fatalError.get() != null) {
+            throw fatalError.get();
+        }
+
+        Throwable error = setupError.get();
+        int index;
+        while((index = nextIndex.getAndIncrement()) < count) {
+            job.fail(index, error != null ? error : new IllegalStateException("Render worker failed"));
+        }
+    }
+
+    /**
+     * Plays started module into sink until it ends or limit is reached
+     *
+     * @param limit maximum number of bytes to write, or {@link Long#MAX_VALUE} for whole module
+     * @return number of written bytes
+     */
+    static long play(Xmp xmp, ByteBuffer buffer, XmpPcmSink sink, long limit, int loopCount) throws IOException {
+        long rendered = 0;
+
+        buffer.clear();
+        while(rendered < limit && xmp.playBuffer(buffer, loopCount)) {
+            buffer.flip();
+            if(buffer.remaining() > limit - rendered) {
+                buffer.limit((int) (limit - rendered));
+            }
+            rendered += buffer.remaining();
+            sink.write(buffer);
+            buffer.clear();
+        }
+
+        return rendered;
+    }
+
+    /**
+     * Returns error to be stored in job result, virtual machine errors are thrown further
+     */
+    static Throwable failure(Throwable error) {
+        if(error instanceof VirtualMachineError) {
+            throw (VirtualMachineError) error;
+        }
+        return error;
+    }
+}
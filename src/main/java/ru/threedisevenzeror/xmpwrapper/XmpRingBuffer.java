@@ -0,0 +1,217 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free single producer, single consumer ring buffer of PCM bytes in native memory.
+ * Producer renders into it with {@link Xmp#playBuffer(XmpRingBuffer, int)}, consumer reads from other thread.
+ * All operations are wait-free and don't allocate
+ */
+public class XmpRingBuffer {
+
+    /**
+     * Callbacks are invoked on thread which caused the crossing
+     */
+    public interface WatermarkListener {
+
+        /**
+         * Called by consumer when available data drops below low watermark, producer should render more
+         */
+        void onLowWatermark(XmpRingBuffer buffer);
+
+        /**
+         * Called by producer when available data reaches high watermark
+         */
+        void onHighWatermark(XmpRingBuffer buffer);
+    }
+
+    // positions are 128 bytes apart from each other and array header, to avoid false sharing
+    private static final int PADDING = 16;
+    private static final int READ = PADDING;
+    private static final int WRITE = PADDING * 2;
+
+    private final int capacity;
+    private final int mask;
+    private final Memory memory;
+    private final AtomicLongArray positions = new AtomicLongArray(PADDING * 3);
+
+    // views are owned by producer and consumer threads respectively
+    private final ByteBuffer producerView;
+    private final ByteBuffer consumerView;
+
+    private volatile WatermarkListener listener;
+    private volatile int lowWatermark;
+    private volatile int highWatermark;
+
+    /**
+     * @param capacity buffer size in bytes, rounded up to power of two
+     */
+    public XmpRingBuffer(int capacity) {
+        if(capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.capacity = roundUp(capacity);
+        this.mask = this.capacity - 1;
+        this.memory = new Memory(this.capacity);
+        this.producerView = memory.getByteBuffer(0, this.capacity);
+        this.consumerView = memory.getByteBuffer(0, this.capacity);
+    }
+
+    private static int roundUp(int value) {
+        int power = Integer.highestOneBit(value);
+        return power == value ? value : power << 1;
+    }
+
+    public void setWatermarks(int low, int high, WatermarkListener listener) {
+        this.lowWatermark = low;
+        this.highWatermark = high;
+        this.listener = listener;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of bytes which can be read
+     */
+    public int available() {
+        return (int) (positions.get(WRITE) - positions.get(READ));
+    }
+
+    /**
+     * Number of bytes which can be written
+     */
+    public int remaining() {
+        return capacity - available();
+    }
+
+    // Producer side
+
+    /**
+     * Writes as much of src as fits, returns number of written bytes
+     */
+    public int write(ByteBuffer src) {
+        long write = positions.get(WRITE);
+        int count = Math.min(src.remaining(), capacity - (int) (write - positions.get(READ)));
+        int offset = (int) (write & mask);
+        int first = Math.min(count, capacity - offset);
+
+        int limit = src.limit();
+        src.limit(src.position() + first);
+        producerView.clear();
+        producerView.position(offset);
+        producerView.put(src);
+
+        if(count > first) {
+            src.limit(src.position() + count - first);
+            producerView.clear();
+            producerView.put(src);
+        }
+
+        src.limit(limit);
+        commitWrite(write, count);
+        return count;
+    }
+
+    /**
+     * Returns number of bytes which can be written contiguously at current write position
+     */
+    int getWritableRegion() {
+        long write = positions.get(WRITE);
+        int free = capacity - (int) (write - positions.get(READ));
+        return Math.min(free, capacity - (int) (write & mask));
+    }
+
+    Pointer getMemory() {
+        return memory;
+    }
+
+    long getWriteOffset() {
+        return positions.get(WRITE) & mask;
+    }
+
+    void commitWrite(int count) {
+        commitWrite(positions.get(WRITE), count);
+    }
+
+    private void commitWrite(long write, int count) {
+        if(count == 0) {
+            return;
+        }
+
+        long read = positions.get(READ);
+        int before = (int) (write - read);
+        positions.lazySet(WRITE, write + count);
+
+        WatermarkListener currentListener = listener;
+        int high = highWatermark;
+        if(currentListener != null && before < high && before + count >= high) {
+            currentListener.onHighWatermark(this);
+        }
+    }
+
+    // Consumer side
+
+    /**
+     * Reads up to len bytes, returns number of read bytes, 0 if buffer is empty
+     */
+    public int read(byte[] dst, int off, int len) {
+        long read = positions.get(READ);
+        int count = Math.min(len, (int) (positions.get(WRITE) - read));
+        int offset = (int) (read & mask);
+        int first = Math.min(count, capacity - offset);
+
+        memory.read(offset, dst, off, first);
+        if(count > first) {
+            memory.read(0, dst, off + first, count - first);
+        }
+
+        commitRead(read, count);
+        return count;
+    }
+
+    /**
+     * Reads as much as fits into dst, returns number of read bytes
+     */
+    public int read(ByteBuffer dst) {
+        long read = positions.get(READ);
+        int count = Math.min(dst.remaining(), (int) (positions.get(WRITE) - read));
+        int offset = (int) (read & mask);
+        int first = Math.min(count, capacity - offset);
+
+        consumerView.clear();
+        consumerView.position(offset);
+        consumerView.limit(offset + first);
+        dst.put(consumerView);
+
+        if(count > first) {
+            consumerView.clear();
+            consumerView.limit(count - first);
+            dst.put(consumerView);
+        }
+
+        commitRead(read, count);
+        return count;
+    }
+
+    private void commitRead(long read, int count) {
+        if(count == 0) {
+            return;
+        }
+
+        int before = (int) (positions.get(WRITE) - read);
+        positions.lazySet(READ, read + count);
+
+        WatermarkListener currentListener = listener;
+        int low = lowWatermark;
+        if(currentListener != null && before >= low && before - count < low) {
+            currentListener.onLowWatermark(this);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Stores sequence entry points and durations of modules on disk, keyed by MD5 of module file and libxmp version.
+ * libxmp finds sequences already while loading module, so cache doesn't save anything once module is loaded.
+ * It lets callers which know file MD5, for example from {@link XmpCatalogBuilder}, get sequences
+ * without loading module at all. Each entry is small binary file
+ */
+public class XmpScanCache {
+
+    private static final int MAGIC = 0x584D5053; // "XMPS"
+    private static final int FORMAT_VERSION = 1;
+    private static final String EXTENSION = ".scan";
+
+    private final File directory;
+    private final int libraryVersion;
+    private long hits;
+    private long misses;
+
+    public XmpScanCache(File directory) {
+        this.directory = directory;
+        this.libraryVersion = Xmp.getLibraryVersionCode();
+    }
+
+    /**
+     * Returns cached sequences of module file with specified MD5, or null if they weren't stored yet
+     */
+    public Xmp.Sequence[] getCached(byte[] md5) throws IOException {
+        Xmp.Sequence[] sequences = read(getFile(md5));
+        synchronized (this) {
+            if(sequences != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        return sequences;
+    }
+
+    /**
+     * Returns sequences of module file from cache, or loads module without samples and stores its sequences
+     *
+     * @param md5 MD5 of file contents
+     */
+    public Xmp.Sequence[] getSequences(Xmp xmp, File file, byte[] md5) throws IOException {
+        Xmp.Sequence[] sequences = getCached(md5);
+        if(sequences != null) {
+            return sequences;
+        }
+
+        XmpModuleSnapshot snapshot = xmp.loadModuleMetadataOnly(file);
+        sequences = new Xmp.Sequence[snapshot.getSequenceCount()];
+        for(int i = 0; i < sequences.length; i++) {
+            sequences[i] = new XmpSequence(snapshot.getSequenceEntryPoint(i), snapshot.getSequenceDuration(i));
+        }
+
+        write(getFile(md5), sequences);
+        return sequences;
+    }
+
+    /**
+     * Stores sequences of module loaded into context
+     *
+     * @param md5 MD5 of file contents, it is same as module MD5 for modules which are not packed
+     */
+    public Xmp.Sequence[] put(byte[] md5, Xmp xmp) throws IOException {
+        Xmp.Sequence[] sequences = XmpSequence.copyOf(xmp.getModuleInfo());
+        write(getFile(md5), sequences);
+        return sequences;
+    }
+
+    public boolean contains(byte[] md5) {
+        return getFile(md5).isFile();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private File getFile(byte[] md5) {
+        return new File(directory, XmpModuleCache.toHex(md5) + '-' + Integer.toHexString(libraryVersion) + EXTENSION);
+    }
+
+    private static Xmp.Sequence[] read(File file) throws IOException {
+        if(!file.isFile()) {
+            return null;
+        }
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(input.readInt() != MAGIC || input.readUnsignedByte() != FORMAT_VERSION) {
+                return null;
+            }
+
+            int count = input.readUnsignedShort();
+            Xmp.Sequence[] sequences = new Xmp.Sequence[count];
+            for(int i = 0; i < count; i++) {
+                sequences[i] = new XmpSequence(input.readUnsignedShort(), input.readInt());
+            }
+            return sequences;
+        } catch (EOFException e) {
+            // truncated entry, it is stored again
+            return null;
+        } finally {
+            input.close();
+        }
+    }
+
+    private void write(File file, Xmp.Sequence[] sequences) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create directory: " + directory);
+        }
+
+        // written to temporary file first, so concurrent readers never see partial entry
+        File temp = File.createTempFile("scan", ".tmp", directory);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeByte(FORMAT_VERSION);
+            output.writeShort(sequences.length);
+            for(Xmp.Sequence sequence : sequences) {
+                output.writeShort(sequence.getEntryPoint());
+                output.writeInt(sequence.getDuration());
+            }
+        } finally {
+            output.close();
+        }
+
+        if(!temp.renameTo(file)) {
+            // other thread or process wrote same entry
+            if(!file.isFile()) {
+                temp.delete();
+                throw new IOException("Can't write cache entry: " + file);
+            }
+            temp.delete();
+        }
+    }
+}
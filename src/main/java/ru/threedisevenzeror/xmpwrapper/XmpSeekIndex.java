@@ -0,0 +1,192 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.util.Arrays;
+
+/**
+ * Timeline of module, time of every row played from start until module loops or ends.
+ * Rows which start order position visited for the first time are keyframes, player can jump to them
+ * with {@link Xmp#setPosition(int)}, so {@link Xmp#seekExact(int)} only renders audio from nearest keyframe
+ */
+public final class XmpSeekIndex {
+
+    private final int[] times;
+    private final int[] positions;
+    private final int[] rows;
+    private final int[] frames;
+    // indices of entries which are keyframes, ascending by time
+    private final int[] keyframes;
+    private final int duration;
+
+    private XmpSeekIndex(int[] times, int[] positions, int[] rows, int[] frames, int[] keyframes, int duration) {
+        this.times = times;
+        this.positions = positions;
+        this.rows = rows;
+        this.frames = frames;
+        this.keyframes = keyframes;
+        this.duration = duration;
+    }
+
+    /**
+     * Plays module from start frame by frame, discarding output, and records its timeline.
+     * Player should be started, it is restarted from beginning after index is built
+     */
+    static XmpSeekIndex build(Xmp xmp) {
+        int capacity = 256;
+        int[] times = new int[capacity];
+        int[] positions = new int[capacity];
+        int[] rows = new int[capacity];
+        int[] frames = new int[capacity];
+        int[] keyframes = new int[capacity];
+        boolean[] visited = new boolean[256];
+
+        int count = 0;
+        int keyframeCount = 0;
+        int lastPosition = -1;
+        int lastRow = -1;
+        int time = 0;
+
+        xmp.restartModule();
+        xmp.resetBuffer();
+
+        while(xmp.playFrame()) {
+            Xmp.FrameInfo frame = xmp.getFrameView();
+            if(frame.getLoopCount() > 0) {
+                break;
+            }
+
+            int position = frame.getPosition();
+            int row = frame.getRow();
+            if(position != lastPosition || row != lastRow) {
+                if(count == capacity) {
+                    capacity *= 2;
+                    times = resize(times, capacity);
+                    positions = resize(positions, capacity);
+                    rows = resize(rows, capacity);
+                    frames = resize(frames, capacity);
+                    keyframes = resize(keyframes, capacity);
+                }
+
+                // row starts when previous frame ends
+                times[count] = time;
+                positions[count] = position;
+                rows[count] = row;
+                frames[count] = frame.getFrame();
+
+                if(position != lastPosition && row == 0 && position >= 0) {
+                    if(position >= visited.length) {
+                        visited = resize(visited, Math.max(position + 1, visited.length * 2));
+                    }
+                    // later visits can't be reached by position jump, it always lands on first one
+                    if(!visited[position]) {
+                        visited[position] = true;
+                        keyframes[keyframeCount++] = count;
+                    }
+                }
+
+                count++;
+                lastPosition = position;
+                lastRow = row;
+            }
+
+            time = frame.getTime();
+        }
+
+        xmp.restartModule();
+        xmp.resetBuffer();
+
+        return new XmpSeekIndex(
+                resize(times, count),
+                resize(positions, count),
+                resize(rows, count),
+                resize(frames, count),
+                resize(keyframes, keyframeCount),
+                time);
+    }
+
+    private static int[] resize(int[] array, int length) {
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, Math.min(length, array.length));
+        return result;
+    }
+
+    private static boolean[] resize(boolean[] array, int length) {
+        boolean[] result = new boolean[length];
+        System.arraycopy(array, 0, result, 0, Math.min(length, array.length));
+        return result;
+    }
+
+    /**
+     * Time of module end or first loop, in milliseconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    public int getEntryCount() {
+        return times.length;
+    }
+
+    public int getTime(int entry) {
+        return times[entry];
+    }
+
+    public int getPosition(int entry) {
+        return positions[entry];
+    }
+
+    public int getRow(int entry) {
+        return rows[entry];
+    }
+
+    public int getFrame(int entry) {
+        return frames[entry];
+    }
+
+    /**
+     * Returns entry of row which is playing at specified time, or -1 if time is before first row
+     */
+    public int findEntry(int milliseconds) {
+        int index = Arrays.binarySearch(times, milliseconds);
+        if(index < 0) {
+            index = -index - 2;
+        } else {
+            // rows shorter than 1ms can share time, take last of them
+            while(index + 1 < times.length && times[index + 1] == milliseconds) {
+                index++;
+            }
+        }
+        return index;
+    }
+
+    public int getKeyframeCount() {
+        return keyframes.length;
+    }
+
+    /**
+     * Returns entry index of keyframe
+     */
+    public int getKeyframe(int keyframe) {
+        return keyframes[keyframe];
+    }
+
+    /**
+     * Returns entry of last keyframe at or before specified time, or -1 if there is none
+     */
+    public int findKeyframe(int milliseconds) {
+        int low = 0;
+        int high = keyframes.length - 1;
+        int result = -1;
+
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(times[keyframes[middle]] <= milliseconds) {
+                result = keyframes[middle];
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,41 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+/**
+ * Immutable sequence, keeps values after context which found it is freed
+ */
+final class XmpSequence implements Xmp.Sequence {
+
+    private final int entryPoint;
+    private final int duration;
+
+    XmpSequence(int entryPoint, int duration) {
+        this.entryPoint = entryPoint;
+        this.duration = duration;
+    }
+
+    /**
+     * Copies sequences of loaded module, structures returned by libxmp point to context memory
+     */
+    static Xmp.Sequence[] copyOf(Xmp.ModuleInfo info) {
+        if(info.getSequenceCount() <= 0) {
+            return new Xmp.Sequence[0];
+        }
+
+        Xmp.Sequence[] sequences = info.getSequences();
+        Xmp.Sequence[] result = new Xmp.Sequence[sequences.length];
+        for(int i = 0; i < sequences.length; i++) {
+            result[i] = new XmpSequence(sequences[i].getEntryPoint(), sequences[i].getDuration());
+        }
+        return result;
+    }
+
+    @Override
+    public int getEntryPoint() {
+        return entryPoint;
+    }
+
+    @Override
+    public int getDuration() {
+        return duration;
+    }
+}
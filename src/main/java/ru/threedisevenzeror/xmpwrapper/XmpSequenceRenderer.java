@@ -0,0 +1,129 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders all sequences (subsongs) of module in parallel.
+ * Module is loaded once per context, each context then plays sequences from their entry points
+ */
+public class XmpSequenceRenderer {
+
+    public interface SinkFactory {
+        XmpPcmSink createSink(int sequenceIndex, Xmp.Sequence sequence) throws IOException;
+    }
+
+    public static class Result extends XmpRenderResult {
+
+        private final int sequenceIndex;
+        private final int entryPoint;
+
+        Result(int sequenceIndex, int entryPoint, long renderedBytes, Throwable error) {
+            super(renderedBytes, error);
+            this.sequenceIndex = sequenceIndex;
+            this.entryPoint = entryPoint;
+        }
+
+        public int getSequenceIndex() {
+            return sequenceIndex;
+        }
+
+        public int getEntryPoint() {
+            return entryPoint;
+        }
+    }
+
+    private final int threads;
+    private int sampleRate = 44100;
+    private int format = 0;
+    private int bufferSize = 65536;
+
+    public XmpSequenceRenderer(int threads) {
+        if(threads <= 0) {
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void setFormat(int format) {
+        this.format = format;
+    }
+
+    /**
+     * @throws IllegalArgumentException if buffer can't hold single frame of current format
+     */
+    public void setBufferSize(int bufferSize) {
+        XmpRenderWorkers.getBufferSize(bufferSize, format);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Renders every sequence of module once, each to its own sink.
+     * Results are returned in sequence order, there is result for every sequence, failed ones have error set.
+     * Module is loaded on calling thread first to find its sequences, that context then renders them too
+     */
+    public List<Result> render(final byte[] module, final SinkFactory sinkFactory) throws InterruptedException {
+        int size = XmpRenderWorkers.getBufferSize(bufferSize, format);
+
+        Xmp first = new Xmp();
+        final Xmp.Sequence[] sequences;
+        try {
+            first.loadModule(module);
+            sequences = XmpSequence.copyOf(first.getModuleInfo());
+        } catch (RuntimeException e) {
+            first.close();
+            throw e;
+        } catch (Error e) {
+            first.close();
+            throw e;
+        }
+
+        final Result[] results = new Result[sequences.length];
+
+        XmpRenderWorkers.run(threads, sequences.length, size, module, first, new XmpRenderWorkers.Job() {
+            @Override
+            public void render(Xmp xmp, ByteBuffer buffer, int index) {
+                results[index] = renderSequence(xmp, buffer, index, sequences[index], sinkFactory);
+            }
+
+            @Override
+            public void fail(int index, Throwable error) {
+                results[index] = new Result(index, sequences[index].getEntryPoint(), 0, error);
+            }
+        });
+
+        return Arrays.asList(results);
+    }
+
+    private Result renderSequence(Xmp xmp, ByteBuffer buffer, int index,
+                                  Xmp.Sequence sequence, SinkFactory sinkFactory) {
+        long rendered = 0;
+        Throwable error = null;
+
+        try {
+            XmpPcmSink sink = sinkFactory.createSink(index, sequence);
+            try {
+                xmp.startPlayer(sampleRate, format);
+                xmp.setPosition(sequence.getEntryPoint());
+
+                // sequence duration limits output, in case playback wanders into another sequence
+                int frameSize = Xmp.getFrameSize(format);
+                long limit = (long) sequence.getDuration() * sampleRate / 1000 * frameSize;
+                rendered = XmpRenderWorkers.play(xmp, buffer, sink, limit, 1);
+            } finally {
+                xmp.endPlayer();
+                sink.close();
+            }
+        } catch (Throwable e) {
+            error = XmpRenderWorkers.failure(e);
+        }
+
+        return new Result(index, sequence.getEntryPoint(), rendered, error);
+    }
+}
@@ -0,0 +1,198 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders channels of module as separate stems in parallel.
+ * Module is loaded once per context, each stem is rendered from start with all channels except its own muted.
+ * All stems have the same length, duration of main sequence, so they are aligned sample to sample
+ */
+public class XmpStemRenderer {
+
+    public interface SinkFactory {
+
+        /**
+         * @param channels channels which are audible in this stem
+         */
+        XmpPcmSink createSink(int stemIndex, int[] channels) throws IOException;
+    }
+
+    public static class Result extends XmpRenderResult {
+
+        private final int stemIndex;
+        private final int[] channels;
+
+        Result(int stemIndex, int[] channels, long renderedBytes, Throwable error) {
+            super(renderedBytes, error);
+            this.stemIndex = stemIndex;
+            this.channels = channels;
+        }
+
+        public int getStemIndex() {
+            return stemIndex;
+        }
+
+        public int[] getChannels() {
+            return channels.clone();
+        }
+    }
+
+    private final int threads;
+    private int sampleRate = 44100;
+    private int format = 0;
+    private int bufferSize = 65536;
+
+    public XmpStemRenderer(int threads) {
+        if(threads <= 0) {
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void setFormat(int format) {
+        this.format = format;
+    }
+
+    /**
+     * @throws IllegalArgumentException if buffer can't hold single frame of current format
+     */
+    public void setBufferSize(int bufferSize) {
+        XmpRenderWorkers.getBufferSize(bufferSize, format);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Renders one stem per module channel.
+     * Module is loaded on calling thread first to find its channel count, that context then renders stems too
+     */
+    public List<Result> render(byte[] module, SinkFactory sinkFactory) throws InterruptedException {
+        int size = XmpRenderWorkers.getBufferSize(bufferSize, format);
+
+        Xmp first = new Xmp();
+        int channelCount;
+        try {
+            first.loadModule(module);
+            channelCount = first.getModuleInfo().getModule().getTracksPerPattern();
+        } catch (RuntimeException e) {
+            first.close();
+            throw e;
+        } catch (Error e) {
+            first.close();
+            throw e;
+        }
+
+        int[][] groups = new int[channelCount][];
+        for(int i = 0; i < channelCount; i++) {
+            groups[i] = new int[] { i };
+        }
+        return render(module, groups, sinkFactory, size, first);
+    }
+
+    /**
+     * Renders one stem per channel group, each to its own sink.
+     * Results are returned in group order, there is result for every group, failed ones have error set
+     */
+    public List<Result> render(byte[] module, int[][] groups, SinkFactory sinkFactory) throws InterruptedException {
+        return render(module, groups, sinkFactory, XmpRenderWorkers.getBufferSize(bufferSize, format), null);
+    }
+
+    private List<Result> render(byte[] module, final int[][] groups, final SinkFactory sinkFactory,
+                                int size, Xmp first) throws InterruptedException {
+
+        final Result[] results = new Result[groups.length];
+
+        XmpRenderWorkers.run(threads, groups.length, size, module, first, new XmpRenderWorkers.Job() {
+            @Override
+            public void render(Xmp xmp, ByteBuffer buffer, int index) {
+                results[index] = renderStem(xmp, buffer, index, groups[index].clone(), sinkFactory);
+            }
+
+            @Override
+            public void fail(int index, Throwable error) {
+                results[index] = new Result(index, groups[index].clone(), 0, error);
+            }
+        });
+
+        return Arrays.asList(results);
+    }
+
+    private Result renderStem(Xmp xmp, ByteBuffer buffer, int index, int[] channels, SinkFactory sinkFactory) {
+        long rendered = 0;
+        Throwable error = null;
+
+        try {
+            XmpPcmSink sink = sinkFactory.createSink(index, channels);
+            try {
+                xmp.startPlayer(sampleRate, format);
+
+                // mute state is set for every channel, as context keeps it from previous stem
+                Xmp.ModuleInfo info = xmp.getModuleInfo();
+                int channelCount = info.getModule().getTracksPerPattern();
+                for(int channel = 0; channel < channelCount; channel++) {
+                    xmp.muteChannel(channel, !contains(channels, channel));
+                }
+
+                int frameSize = Xmp.getFrameSize(format);
+                int duration = info.getSequenceCount() > 0 ? info.getSequences()[0].getDuration() : 0;
+
+                if(duration > 0) {
+                    long limit = (long) duration * sampleRate / 1000 * frameSize;
+                    rendered = XmpRenderWorkers.play(xmp, buffer, sink, limit, 1);
+
+                    // playback can end slightly before estimated duration, stems are padded with silence
+                    // to equal length
+                    rendered += writeSilence(sink, buffer, limit - rendered);
+                } else {
+                    // without duration estimate module is played to its end,
+                    // muting doesn't change timing, so stems still have equal length
+                    rendered = XmpRenderWorkers.play(xmp, buffer, sink, Long.MAX_VALUE, 1);
+                }
+            } finally {
+                xmp.endPlayer();
+                sink.close();
+            }
+        } catch (Throwable e) {
+            error = XmpRenderWorkers.failure(e);
+        }
+
+        return new Result(index, channels, rendered, error);
+    }
+
+    private long writeSilence(XmpPcmSink sink, ByteBuffer buffer, long length) throws IOException {
+        if(length <= 0) {
+            return 0;
+        }
+
+        // unsigned 8-bit silence is middle value
+        byte value = (format & Xmp.FORMAT_8BIT) != 0 && (format & Xmp.FORMAT_UNSIGNED) != 0 ? (byte) 0x80 : 0;
+        buffer.clear();
+        while(buffer.hasRemaining()) {
+            buffer.put(value);
+        }
+
+        long written = 0;
+        while(written < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - written));
+            written += buffer.remaining();
+            sink.write(buffer);
+        }
+        return written;
+    }
+
+    private static boolean contains(int[] channels, int channel) {
+        for(int value : channels) {
+            if(value == channel) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,289 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serves many module streams at once. Each session writes to its channel on its own session thread
+ * (virtual thread when JVM supports them), while native rendering is done only on fixed number of render threads,
+ * so blocking native calls never pin session threads. Session renders only when its buffer has free space,
+ * slow or idle clients don't consume render time
+ */
+public class XmpStreamServer implements Closeable {
+
+    // how long session thread sleeps between checks when it has nothing to send
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ExecutorService renderExecutor;
+    private final Executor sessionExecutor;
+    private final boolean ownsSessionExecutor;
+    private final ConcurrentHashMap<Session, Boolean> sessions = new ConcurrentHashMap<Session, Boolean>();
+    private volatile int loopCount;
+    private volatile boolean closed;
+
+    /**
+     * Creates server with virtual thread per session if available, or cached thread pool otherwise
+     */
+    public XmpStreamServer(int renderThreads) {
+        this(renderThreads, createSessionExecutor(), true);
+    }
+
+    public XmpStreamServer(int renderThreads, Executor sessionExecutor) {
+        this(renderThreads, sessionExecutor, false);
+    }
+
+    private XmpStreamServer(int renderThreads, Executor sessionExecutor, boolean ownsSessionExecutor) {
+        this.renderExecutor = Executors.newFixedThreadPool(renderThreads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "XmpStreamServer-render-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.sessionExecutor = sessionExecutor;
+        this.ownsSessionExecutor = ownsSessionExecutor;
+    }
+
+    /**
+     * Returns Executors.newVirtualThreadPerTaskExecutor() on JVMs which have it, cached thread pool otherwise
+     */
+    public static ExecutorService createSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Loop count used by sessions opened after this call
+     */
+    public void setLoopCount(int loopCount) {
+        this.loopCount = loopCount;
+    }
+
+    public Session open(Xmp xmp, int sampleRate, int format, int bufferSize, OutputStream output) {
+        return open(xmp, sampleRate, format, bufferSize, Channels.newChannel(output));
+    }
+
+    /**
+     * Starts streaming module to channel. Session takes ownership of context and channel,
+     * both are closed when module ends or session is closed
+     *
+     * @param xmp context with loaded module
+     * @param bufferSize size of rendered audio buffered per session, in bytes
+     */
+    public Session open(Xmp xmp, int sampleRate, int format, int bufferSize, WritableByteChannel output) {
+        if(closed) {
+            throw new IllegalStateException("Server is closed");
+        }
+
+        xmp.startPlayer(sampleRate, format);
+        final Session session = new Session(xmp, bufferSize, loopCount, output);
+        sessions.put(session, Boolean.TRUE);
+
+        try {
+            sessionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    session.sendLoop();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sessions.remove(session);
+            session.release();
+            throw e;
+        }
+
+        return session;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Closes all sessions, including their channels, and stops render threads
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for(Session session : sessions.keySet()) {
+            session.close();
+        }
+
+        renderExecutor.shutdown();
+        if(ownsSessionExecutor && sessionExecutor instanceof ExecutorService) {
+            ((ExecutorService) sessionExecutor).shutdown();
+        }
+    }
+
+    public class Session implements Closeable {
+
+        private final Xmp xmp;
+        private final XmpRingBuffer ring;
+        private final WritableByteChannel output;
+        private final ByteBuffer sendBuffer;
+        private final int lowWatermark;
+        private final int loopCount;
+        private final AtomicBoolean renderScheduled = new AtomicBoolean();
+        private final Runnable renderTask = new Runnable() {
+            @Override
+            public void run() {
+                render();
+            }
+        };
+
+        private volatile Thread sender;
+        private volatile boolean ended;
+        private volatile boolean closed;
+        private volatile Throwable error;
+        private volatile long sentBytes;
+
+        Session(Xmp xmp, int bufferSize, int loopCount, WritableByteChannel output) {
+            this.xmp = xmp;
+            this.loopCount = loopCount;
+            this.ring = new XmpRingBuffer(bufferSize);
+            this.output = output;
+            this.sendBuffer = ByteBuffer.allocateDirect(Math.min(ring.getCapacity() / 2, 16384));
+            this.lowWatermark = ring.getCapacity() / 2;
+        }
+
+        public long getSentBytes() {
+            return sentBytes;
+        }
+
+        public boolean isActive() {
+            return !closed;
+        }
+
+        /**
+         * Returns error which stopped session, or null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Stops session and closes its channel, which also releases session thread blocked on writing to slow client
+         */
+        @Override
+        public void close() {
+            closed = true;
+            closeOutput();
+
+            Thread thread = sender;
+            if(thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void scheduleRender() {
+            if(!ended && !closed && renderScheduled.compareAndSet(false, true)) {
+                try {
+                    renderExecutor.execute(renderTask);
+                } catch (RejectedExecutionException e) {
+                    renderScheduled.set(false);
+                    close();
+                }
+            }
+        }
+
+        // render thread
+        private void render() {
+            try {
+                synchronized (this) {
+                    if(!closed && !xmp.isClosed() && !xmp.playBuffer(ring, loopCount)) {
+                        ended = true;
+                    }
+                }
+            } catch (Throwable e) {
+                error = e;
+                closed = true;
+            } finally {
+                renderScheduled.set(false);
+                Thread thread = sender;
+                if(thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            }
+        }
+
+        // session thread
+        private void sendLoop() {
+            sender = Thread.currentThread();
+            scheduleRender();
+
+            try {
+                while(!closed) {
+                    sendBuffer.clear();
+                    int read = ring.read(sendBuffer);
+
+                    if(ring.available() < lowWatermark) {
+                        scheduleRender();
+                    }
+
+                    if(read == 0) {
+                        // last region can be committed between read and this check, it is sent on next iteration
+                        if(ended) {
+                            if(ring.available() == 0) {
+                                break;
+                            }
+                            continue;
+                        }
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        continue;
+                    }
+
+                    sendBuffer.flip();
+                    while(sendBuffer.hasRemaining()) {
+                        sentBytes += output.write(sendBuffer);
+                    }
+                }
+            } catch (IOException e) {
+                // write fails with closed channel when session is closed, that is not an error
+                if(!closed) {
+                    error = e;
+                }
+            } finally {
+                closed = true;
+                sessions.remove(this);
+                release();
+            }
+        }
+
+        private void release() {
+            synchronized (this) {
+                xmp.close();
+            }
+            closeOutput();
+        }
+
+        private void closeOutput() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                if(error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Generates small ProTracker modules, so tests don't depend on external files
+ */
+final class TestModules {
+
+    static final int CHANNELS = 4;
+    static final int SAMPLE_LENGTH = 1024;
+
+    private static final int ROWS = 64;
+    private static final int SAMPLES = 31;
+    private static final int USED_SAMPLES = 2;
+
+    private TestModules() {}
+
+    /**
+     * Generates 4 channel M.K. module at speed 6 and 125 bpm, each pattern plays for 7680 ms.
+     * First two samples are square and saw waves, others are empty
+     */
+    static byte[] generate(String name, int patterns) {
+        int patternSize = ROWS * CHANNELS * 4;
+        byte[] module = new byte[1084 + patterns * patternSize + USED_SAMPLES * SAMPLE_LENGTH];
+
+        writeString(module, 0, name, 20);
+
+        for(int i = 0; i < USED_SAMPLES; i++) {
+            int offset = 20 + i * 30;
+            writeString(module, offset, "sample " + i, 22);
+            writeWord(module, offset + 22, SAMPLE_LENGTH / 2); // length in words
+            module[offset + 25] = 64; // volume
+            writeWord(module, offset + 28, SAMPLE_LENGTH / 2); // loop length
+        }
+        for(int i = USED_SAMPLES; i < SAMPLES; i++) {
+            writeWord(module, 20 + i * 30 + 28, 1); // no loop
+        }
+
+        module[950] = (byte) patterns; // song length
+        module[951] = 127;
+        for(int i = 0; i < patterns; i++) {
+            module[952 + i] = (byte) i;
+        }
+        writeString(module, 1080, "M.K.", 4);
+
+        for(int p = 0; p < patterns; p++) {
+            for(int row = 0; row < ROWS; row += 4) {
+                for(int channel = 0; channel < CHANNELS; channel++) {
+                    int offset = 1084 + p * patternSize + (row * CHANNELS + channel) * 4;
+                    int sample = 1 + (row / 4 + channel) % USED_SAMPLES;
+                    int period = 428 - channel * 40;
+                    module[offset] = (byte) ((sample & 0xF0) | (period >> 8));
+                    module[offset + 1] = (byte) period;
+                    module[offset + 2] = (byte) ((sample & 0x0F) << 4);
+                }
+            }
+        }
+
+        int dataOffset = 1084 + patterns * patternSize;
+        for(int j = 0; j < SAMPLE_LENGTH; j++) {
+            int phase = j & 63;
+            module[dataOffset + j] = (byte) (phase < 32 ? 100 : -100);
+            module[dataOffset + SAMPLE_LENGTH + j] = (byte) (phase * 4 - 128);
+        }
+
+        return module;
+    }
+
+    /**
+     * Writes module to temporary file, deleted on exit
+     */
+    static File writeTemp(byte[] module) throws IOException {
+        File file = File.createTempFile("xmptest", ".mod");
+        file.deleteOnExit();
+
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(module);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private static void writeString(byte[] data, int offset, String value, int length) {
+        for(int i = 0; i < length && i < value.length(); i++) {
+            data[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    private static void writeWord(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+}
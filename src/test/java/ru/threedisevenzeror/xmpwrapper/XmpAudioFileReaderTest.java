@@ -0,0 +1,87 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XmpAudioFileReaderTest {
+
+    // counts bytes read from underlying stream
+    private static class CountingStream extends ByteArrayInputStream {
+
+        int count;
+
+        CountingStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int readed = super.read(b, off, len);
+            count += Math.max(0, readed);
+            return readed;
+        }
+    }
+
+    @Test
+    public void streamWithoutMarkIsRejected() throws IOException {
+        InputStream stream = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("Stream shouldn't be read");
+            }
+        };
+
+        try {
+            new XmpAudioFileReader().getAudioFileFormat(stream);
+            throw new AssertionError("Stream was accepted");
+        } catch (UnsupportedAudioFileException e) {
+            assertEquals("Stream should support mark/reset", e.getMessage());
+        }
+    }
+
+    @Test
+    public void onlyHeaderOfOtherStreamIsRead() throws IOException {
+        CountingStream source = new CountingStream(new byte[4 * 1024 * 1024]);
+        InputStream stream = new BufferedInputStream(source);
+
+        try {
+            new XmpAudioFileReader().getAudioFileFormat(stream);
+            throw new AssertionError("Stream was accepted");
+        } catch (UnsupportedAudioFileException e) {
+            // expected
+        }
+
+        assertTrue("read " + source.count + " bytes", source.count <= 128 * 1024);
+        // stream is reset for next provider
+        assertEquals(0, stream.read());
+        int remaining = 0;
+        int readed;
+        byte[] buffer = new byte[16384];
+        while((readed = stream.read(buffer)) > 0) {
+            remaining += readed;
+        }
+        assertEquals(4 * 1024 * 1024 - 1, remaining);
+    }
+
+    @Test
+    public void moduleStreamIsResetAfterFormatIsRead() throws Exception {
+        byte[] module = TestModules.generate("stream", 1);
+        InputStream stream = new BufferedInputStream(new ByteArrayInputStream(module));
+
+        AudioFileFormat format = new XmpAudioFileReader().getAudioFileFormat(stream);
+        assertEquals("stream", format.getProperty("title"));
+
+        byte[] again = new byte[module.length];
+        assertEquals(20, stream.read(again, 0, 20));
+        assertEquals('s', again[0]);
+    }
+}
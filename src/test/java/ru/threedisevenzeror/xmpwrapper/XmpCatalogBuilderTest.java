@@ -0,0 +1,86 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class XmpCatalogBuilderTest {
+
+    private File root;
+
+    @Before
+    public void createRoot() throws IOException {
+        root = File.createTempFile("catalog", "");
+        root.delete();
+        root.mkdir();
+    }
+
+    @After
+    public void deleteRoot() {
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        // links are deleted without following them
+        File[] children = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void symbolicLinkLoopIsWalkedOnce() throws Exception {
+        File directory = new File(root, "a/b");
+        directory.mkdirs();
+        Files.createSymbolicLink(new File(directory, "loop").toPath(), root.toPath());
+        write(new File(directory, "song.mod"), TestModules.generate("looped", 1));
+
+        final List<String> names = new ArrayList<String>();
+        XmpCatalogBuilder.Stats stats = new XmpCatalogBuilder(2).build(root, new XmpCatalogBuilder.Sink() {
+            @Override
+            public void onRecord(XmpCatalogBuilder.Record record) {
+                names.add(record.getName());
+            }
+        });
+
+        assertEquals(1, stats.getFileCount());
+        assertEquals(1, names.size());
+        assertEquals("looped", names.get(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sinkExceptionIsThrownToCaller() throws Exception {
+        for(int i = 0; i < 4; i++) {
+            write(new File(root, "song" + i + ".mod"), TestModules.generate("song " + i, 1));
+        }
+
+        new XmpCatalogBuilder(2).build(root, new XmpCatalogBuilder.Sink() {
+            @Override
+            public void onRecord(XmpCatalogBuilder.Record record) {
+                throw new IllegalStateException("sink failed");
+            }
+        });
+    }
+}
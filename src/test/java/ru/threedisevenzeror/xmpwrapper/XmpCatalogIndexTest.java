@@ -0,0 +1,175 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XmpCatalogIndexTest {
+
+    private static class FakeModule implements Xmp.Module {
+
+        private final String name;
+        private final String type;
+        private final int channels;
+
+        FakeModule(String name, String type, int channels) {
+            this.name = name;
+            this.type = type;
+            this.channels = channels;
+        }
+
+        @Override public String getName() { return name; }
+        @Override public String getType() { return type; }
+        @Override public int getPatternCount() { return 10; }
+        @Override public int getTrackCount() { return 10 * channels; }
+        @Override public int getTracksPerPattern() { return channels; }
+        @Override public int getNumberOfInstruments() { return 5; }
+        @Override public int getNumberOfSamples() { return 6; }
+        @Override public int getInitialSpeed() { return 6; }
+        @Override public int getInitialBpm() { return 125; }
+        @Override public int getModuleLengthInPatterns() { return 12; }
+        @Override public int getRestartPosition() { return 0; }
+        @Override public int getGlobalVolume() { return 64; }
+        @Override public Xmp.Channel[] getChannels() { return new Xmp.Channel[0]; }
+        @Override public Xmp.Instrument[] getInstruments() { return new Xmp.Instrument[0]; }
+        @Override public Xmp.Sample[] getSamples() { return new Xmp.Sample[0]; }
+        @Override public int[] getOrders() { return new int[0]; }
+    }
+
+    private static class FakeModuleInfo implements Xmp.ModuleInfo {
+
+        private final byte[] md5;
+        private final Xmp.Module module;
+        private final Xmp.Sequence[] sequences;
+
+        FakeModuleInfo(int seed, Xmp.Module module, Xmp.Sequence... sequences) {
+            this.md5 = new byte[16];
+            for(int i = 0; i < md5.length; i++) {
+                md5[i] = (byte) (seed * 31 + i);
+            }
+            this.module = module;
+            this.sequences = sequences;
+        }
+
+        @Override public byte[] getMd5() { return md5; }
+        @Override public int getVolumeScale() { return 100; }
+        @Override public Xmp.Module getModule() { return module; }
+        @Override public String getComment() { return null; }
+        @Override public int getSequenceCount() { return sequences.length; }
+        @Override public Xmp.Sequence[] getSequences() { return sequences; }
+    }
+
+    private File file;
+    private XmpCatalogIndex index;
+
+    @Before
+    public void writeIndex() throws IOException {
+        XmpCatalogIndex.Writer writer = new XmpCatalogIndex.Writer();
+        writer.add("mods/intro.mod", new FakeModuleInfo(1, new FakeModule("Intro", "Protracker", 4),
+                new XmpSequence(0, 90000)));
+        writer.add("mods/long.xm", new FakeModuleInfo(2, new FakeModule("Long tune", "Fast Tracker II", 16),
+                new XmpSequence(0, 300000), new XmpSequence(20, 45000)));
+        writer.add("mods/short.mod", new FakeModuleInfo(3, new FakeModule("Jingle", "Protracker", 8),
+                new XmpSequence(0, 15000)));
+        writer.add("mods/empty.s3m", new FakeModuleInfo(4, new FakeModule("", "Scream Tracker 3", 32)));
+        assertEquals(4, writer.getRecordCount());
+
+        file = File.createTempFile("catalog", ".idx");
+        writer.write(file);
+        index = XmpCatalogIndex.open(file);
+    }
+
+    @After
+    public void deleteIndex() {
+        file.delete();
+    }
+
+    @Test
+    public void recordsAreReadBack() {
+        assertEquals(4, index.getRecordCount());
+
+        assertEquals("mods/long.xm", index.getPath(1));
+        assertEquals("Long tune", index.getName(1));
+        assertEquals("Fast Tracker II", index.getType(1));
+        assertArrayEquals(new FakeModuleInfo(2, null).getMd5(), index.getMd5(1));
+        assertEquals(16, index.getChannelCount(1));
+        assertEquals(10, index.getPatternCount(1));
+        assertEquals(5, index.getInstrumentCount(1));
+        assertEquals(6, index.getSampleCount(1));
+        assertEquals(12, index.getLength(1));
+        assertEquals(300000, index.getDuration(1));
+
+        assertEquals("mods/intro.mod", index.getPath(0));
+        assertEquals("Protracker", index.getType(0));
+        assertEquals("", index.getName(3));
+    }
+
+    @Test
+    public void sequencesAreReadBack() {
+        assertEquals(1, index.getSequenceCount(0));
+        assertEquals(2, index.getSequenceCount(1));
+        assertEquals(0, index.getSequenceCount(3));
+
+        assertEquals(20, index.getSequenceEntryPoint(1, 1));
+        assertEquals(45000, index.getSequenceDuration(1, 1));
+        assertEquals(15000, index.getSequenceDuration(2, 0));
+        assertEquals(0, index.getDuration(3));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void sequenceOutsideRecordIsRejected() {
+        index.getSequenceEntryPoint(0, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void recordOutsideIndexIsRejected() {
+        index.getPath(4);
+    }
+
+    @Test
+    public void stringsAreSharedAndSorted() {
+        int protracker = index.findString("Protracker");
+        assertEquals(protracker, index.findString("Protracker"));
+        assertEquals(-1, index.findString("Impulse Tracker"));
+        assertTrue(index.findString("Fast Tracker II") < protracker);
+    }
+
+    @Test
+    public void selectByType() {
+        assertArrayEquals(new int[] { 0, 2 }, index.select(new XmpCatalogIndex.Filter().setType("Protracker")));
+        assertArrayEquals(new int[0], index.select(new XmpCatalogIndex.Filter().setType("Impulse Tracker")));
+    }
+
+    @Test
+    public void selectByDurationAndChannels() {
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, index.select(new XmpCatalogIndex.Filter()));
+        assertArrayEquals(new int[] { 0, 2 }, index.select(new XmpCatalogIndex.Filter().setDuration(1, 90000)));
+        assertArrayEquals(new int[] { 1, 3 }, index.select(new XmpCatalogIndex.Filter().setChannels(16, 64)));
+        assertArrayEquals(new int[] { 2 }, index.select(new XmpCatalogIndex.Filter()
+                .setType("Protracker").setChannels(5, 8).setDuration(0, 60000)));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        File other = File.createTempFile("catalog", ".bin");
+        try {
+            FileOutputStream output = new FileOutputStream(other);
+            try {
+                output.write(new byte[64]);
+            } finally {
+                output.close();
+            }
+            XmpCatalogIndex.open(other);
+        } finally {
+            other.delete();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XmpLatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReturnsZeros() {
+        XmpLatencyHistogram histogram = new XmpLatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99), 0);
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void countTotalMeanAndMax() {
+        XmpLatencyHistogram histogram = new XmpLatencyHistogram();
+        histogram.record(100);
+        histogram.record(300);
+        histogram.record(-5);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(400, histogram.getTotal());
+        assertEquals(300, histogram.getMax());
+        assertEquals(400 / 3.0, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void smallValuesHaveOwnBuckets() {
+        XmpLatencyHistogram histogram = new XmpLatencyHistogram();
+        for(int i = 0; i < 32; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(23, histogram.getPercentile(75));
+        assertEquals(31, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentileIsUpperBoundOfBucket() {
+        XmpLatencyHistogram histogram = new XmpLatencyHistogram();
+        histogram.record(1000);
+        histogram.record(5000);
+
+        // 1000 has 10 significant bits, its bucket is 992..1023
+        assertEquals(1023, histogram.getPercentile(50));
+        // upper bound is capped by recorded maximum
+        assertEquals(5000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void relativeErrorIsBelowBucketWidth() {
+        for(long value = 1; value < (1L << 50); value = value * 3 + 7) {
+            XmpLatencyHistogram histogram = new XmpLatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+
+            long bound = histogram.getPercentile(50);
+            assertTrue("bound " + bound + " below " + value, bound >= value);
+            assertTrue("bound " + bound + " too far from " + value, bound - value < value / 16.0 + 1);
+        }
+    }
+
+    @Test
+    public void percentilesAreOrdered() {
+        XmpLatencyHistogram histogram = new XmpLatencyHistogram();
+        for(int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+        long p999 = histogram.getPercentile(99.9);
+        assertTrue(p50 >= 5000000 && p50 < 5000000 * 1.0625);
+        assertTrue(p99 >= 9900000 && p99 < 9900000 * 1.0625);
+        assertTrue(p50 <= p99 && p99 <= p999);
+        assertTrue(p999 <= histogram.getMax());
+    }
+
+    @Test
+    public void resetClearsAllValues() {
+        XmpLatencyHistogram histogram = new XmpLatencyHistogram();
+        histogram.record(12345);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getTotal());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(100));
+
+        histogram.record(7);
+        assertEquals(7, histogram.getPercentile(100));
+    }
+}
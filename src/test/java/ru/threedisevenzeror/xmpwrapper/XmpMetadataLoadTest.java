@@ -0,0 +1,78 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XmpMetadataLoadTest {
+
+    private Xmp xmp;
+
+    @Before
+    public void createContext() {
+        xmp = new Xmp();
+    }
+
+    @After
+    public void closeContext() {
+        xmp.close();
+    }
+
+    private void assertReleased(int flags) {
+        assertEquals(Xmp.State.Unloaded, xmp.getPlayerState());
+        assertEquals(flags, xmp.getParam(Xmp.Parameter.SampleControlFlags));
+    }
+
+    @Test
+    public void loadsTwiceOnSameContext() throws Exception {
+        int flags = xmp.getParam(Xmp.Parameter.SampleControlFlags);
+        byte[] first = TestModules.generate("first", 1);
+        File second = TestModules.writeTemp(TestModules.generate("second", 2));
+
+        XmpModuleSnapshot snapshot = xmp.loadModuleMetadataOnly(first);
+        assertEquals("first", snapshot.getName());
+        assertEquals(TestModules.CHANNELS, snapshot.getChannelCount());
+        assertTrue(snapshot.getSampleDataSize() >= 2 * TestModules.SAMPLE_LENGTH);
+        assertReleased(flags);
+
+        snapshot = xmp.loadModuleMetadataOnly(second);
+        assertEquals("second", snapshot.getName());
+        assertEquals(2, snapshot.getOrderCount());
+        assertTrue(snapshot.getSequenceDuration(0) > 0);
+        assertReleased(flags);
+    }
+
+    @Test
+    public void releasesModuleWhichIsAlreadyLoaded() {
+        int flags = xmp.getParam(Xmp.Parameter.SampleControlFlags);
+        xmp.loadModule(TestModules.generate("playing", 1));
+        xmp.startPlayer(44100);
+
+        XmpModuleSnapshot snapshot = xmp.loadModuleMetadataOnly(TestModules.generate("metadata", 1));
+        assertEquals("metadata", snapshot.getName());
+        assertReleased(flags);
+
+        // samples are loaded again by normal load
+        xmp.loadModule(TestModules.generate("normal", 1));
+        assertEquals(Xmp.State.Loaded, xmp.getPlayerState());
+    }
+
+    @Test
+    public void restoresFlagsWhenLoadFails() {
+        int flags = xmp.getParam(Xmp.Parameter.SampleControlFlags);
+        try {
+            xmp.loadModuleMetadataOnly(new byte[2048]);
+            throw new AssertionError("Invalid module was loaded");
+        } catch (Error e) {
+            if(e instanceof AssertionError) {
+                throw e;
+            }
+        }
+        assertReleased(flags);
+    }
+}
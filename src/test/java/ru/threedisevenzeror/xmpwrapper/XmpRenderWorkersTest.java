@@ -0,0 +1,79 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class XmpRenderWorkersTest {
+
+    @Test
+    public void bufferSizeIsRoundedToFrames() {
+        assertEquals(8, XmpRenderWorkers.getBufferSize(11, 0));
+        assertEquals(4, XmpRenderWorkers.getBufferSize(4, 0));
+        assertEquals(3, XmpRenderWorkers.getBufferSize(3, Xmp.FORMAT_8BIT | Xmp.FORMAT_MONO));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bufferSmallerThanFrameIsRejected() {
+        XmpRenderWorkers.getBufferSize(3, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void renderersRejectBufferSmallerThanFrame() {
+        new XmpSequenceRenderer(1).setBufferSize(2);
+    }
+
+    @Test
+    public void everyJobIsRenderedOrFailed() throws InterruptedException {
+        final int count = 50;
+        final AtomicIntegerArray rendered = new AtomicIntegerArray(count);
+        final AtomicIntegerArray failed = new AtomicIntegerArray(count);
+
+        XmpRenderWorkers.run(4, count, 1024, null, null, new XmpRenderWorkers.Job() {
+            @Override
+            public void render(Xmp xmp, ByteBuffer buffer, int index) {
+                if(index % 3 == 0) {
+                    throw new IllegalStateException("job " + index);
+                }
+                rendered.incrementAndGet(index);
+            }
+
+            @Override
+            public void fail(int index, Throwable error) {
+                assertEquals("job " + index, error.getMessage());
+                failed.incrementAndGet(index);
+            }
+        });
+
+        for(int i = 0; i < count; i++) {
+            assertEquals(1, rendered.get(i) + failed.get(i));
+            assertEquals(i % 3 == 0 ? 1 : 0, failed.get(i));
+        }
+    }
+
+    @Test
+    public void jobsAreFailedWhenNoWorkerCanLoadModule() throws InterruptedException {
+        final int count = 10;
+        final Throwable[] errors = new Throwable[count];
+
+        XmpRenderWorkers.run(3, count, 1024, new byte[64], null, new XmpRenderWorkers.Job() {
+            @Override
+            public void render(Xmp xmp, ByteBuffer buffer, int index) {
+                throw new AssertionError("Invalid module was loaded");
+            }
+
+            @Override
+            public void fail(int index, Throwable error) {
+                errors[index] = error;
+            }
+        });
+
+        for(Throwable error : errors) {
+            assertNotNull(error);
+        }
+    }
+}
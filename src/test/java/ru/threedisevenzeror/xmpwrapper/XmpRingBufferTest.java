@@ -0,0 +1,184 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class XmpRingBufferTest {
+
+    private static byte[] sequence(int start, int length) {
+        byte[] result = new byte[length];
+        for(int i = 0; i < length; i++) {
+            result[i] = (byte) (start + i);
+        }
+        return result;
+    }
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(16, new XmpRingBuffer(16).getCapacity());
+        assertEquals(32, new XmpRingBuffer(17).getCapacity());
+        assertEquals(1, new XmpRingBuffer(1).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacityIsRejected() {
+        new XmpRingBuffer(0);
+    }
+
+    @Test
+    public void writeStopsWhenFull() {
+        XmpRingBuffer buffer = new XmpRingBuffer(16);
+        ByteBuffer src = ByteBuffer.wrap(sequence(0, 20));
+
+        assertEquals(16, buffer.write(src));
+        assertEquals(16, src.position());
+        assertEquals(20, src.limit());
+        assertEquals(16, buffer.available());
+        assertEquals(0, buffer.remaining());
+        assertEquals(0, buffer.write(src));
+    }
+
+    @Test
+    public void readFromEmptyBufferReturnsZero() {
+        XmpRingBuffer buffer = new XmpRingBuffer(16);
+        assertEquals(0, buffer.read(new byte[4], 0, 4));
+        assertEquals(0, buffer.read(ByteBuffer.allocate(4)));
+    }
+
+    @Test
+    public void writeAndReadWrapAroundEnd() {
+        XmpRingBuffer buffer = new XmpRingBuffer(16);
+        byte[] skipped = new byte[12];
+        buffer.write(ByteBuffer.wrap(sequence(0, 12)));
+        assertEquals(12, buffer.read(skipped, 0, 12));
+
+        // 4 bytes fit before end, 6 continue from start of memory
+        assertEquals(10, buffer.write(ByteBuffer.wrap(sequence(100, 10))));
+        assertEquals(10, buffer.available());
+
+        byte[] first = new byte[7];
+        assertEquals(7, buffer.read(first, 0, 7));
+        assertArrayEquals(sequence(100, 7), first);
+
+        ByteBuffer rest = ByteBuffer.allocate(8);
+        assertEquals(3, buffer.read(rest));
+        rest.flip();
+        byte[] second = new byte[rest.remaining()];
+        rest.get(second);
+        assertArrayEquals(sequence(107, 3), second);
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void readIntoByteBufferWrapsAroundEnd() {
+        XmpRingBuffer buffer = new XmpRingBuffer(8);
+        buffer.write(ByteBuffer.wrap(sequence(0, 6)));
+        buffer.read(new byte[6], 0, 6);
+        buffer.write(ByteBuffer.wrap(sequence(50, 8)));
+
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        assertEquals(8, buffer.read(dst));
+        assertArrayEquals(sequence(50, 8), dst.array());
+    }
+
+    @Test
+    public void watermarksFireOnceWhenCrossed() {
+        XmpRingBuffer buffer = new XmpRingBuffer(16);
+        final AtomicInteger low = new AtomicInteger();
+        final AtomicInteger high = new AtomicInteger();
+        buffer.setWatermarks(4, 12, new XmpRingBuffer.WatermarkListener() {
+            @Override
+            public void onLowWatermark(XmpRingBuffer buffer) {
+                low.incrementAndGet();
+            }
+
+            @Override
+            public void onHighWatermark(XmpRingBuffer buffer) {
+                high.incrementAndGet();
+            }
+        });
+
+        buffer.write(ByteBuffer.wrap(sequence(0, 8)));
+        assertEquals(0, high.get());
+        buffer.write(ByteBuffer.wrap(sequence(0, 4)));
+        assertEquals(1, high.get());
+        buffer.write(ByteBuffer.wrap(sequence(0, 4)));
+        assertEquals(1, high.get());
+
+        byte[] dst = new byte[16];
+        buffer.read(dst, 0, 8);
+        assertEquals(0, low.get());
+        buffer.read(dst, 0, 5);
+        assertEquals(1, low.get());
+        buffer.read(dst, 0, 3);
+        assertEquals(1, low.get());
+
+        // refilled above high watermark and drained again
+        buffer.write(ByteBuffer.wrap(sequence(0, 16)));
+        assertEquals(2, high.get());
+        buffer.read(dst, 0, 16);
+        assertEquals(2, low.get());
+    }
+
+    @Test(timeout = 30000)
+    public void producerAndConsumerOnSeparateThreadsKeepOrder() throws Exception {
+        final XmpRingBuffer buffer = new XmpRingBuffer(1024);
+        final int total = 4 * 1024 * 1024;
+        final Throwable[] producerError = new Throwable[1];
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // odd chunk size, so writes cross end of memory at different offsets
+                    ByteBuffer chunk = ByteBuffer.allocate(333);
+                    int written = 0;
+                    while(written < total) {
+                        chunk.clear();
+                        for(int i = 0; i < chunk.capacity(); i++) {
+                            chunk.put((byte) (written + i));
+                        }
+                        chunk.flip();
+                        chunk.limit(Math.min(chunk.limit(), total - written));
+                        while(chunk.hasRemaining()) {
+                            int count = buffer.write(chunk);
+                            written += count;
+                            if(count == 0) {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    producerError[0] = e;
+                }
+            }
+        });
+        producer.start();
+
+        byte[] dst = new byte[500];
+        int read = 0;
+        while(read < total) {
+            int count = buffer.read(dst, 0, dst.length);
+            for(int i = 0; i < count; i++) {
+                if(dst[i] != (byte) (read + i)) {
+                    throw new AssertionError("Unexpected byte at " + (read + i));
+                }
+            }
+            read += count;
+            if(count == 0) {
+                Thread.yield();
+            }
+        }
+
+        producer.join();
+        if(producerError[0] != null) {
+            throw new AssertionError(producerError[0]);
+        }
+        assertEquals(0, buffer.available());
+    }
+}
@@ -0,0 +1,83 @@
+package ru.threedisevenzeror.xmpwrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class XmpScanCacheTest {
+
+    private File directory;
+    private Xmp xmp;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = File.createTempFile("scancache", "");
+        directory.delete();
+        xmp = new Xmp();
+    }
+
+    @After
+    public void deleteDirectory() {
+        xmp.close();
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void missLoadsModuleAndHitDoesNot() throws Exception {
+        byte[] module = TestModules.generate("cached", 2);
+        File file = TestModules.writeTemp(module);
+        byte[] md5 = MessageDigest.getInstance("MD5").digest(module);
+        XmpScanCache cache = new XmpScanCache(directory);
+
+        assertNull(cache.getCached(md5));
+        assertEquals(1, cache.getMissCount());
+
+        Xmp.Sequence[] loaded = cache.getSequences(xmp, file, md5);
+        assertTrue(loaded.length > 0);
+        assertTrue(loaded[0].getDuration() > 0);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+        assertTrue(cache.contains(md5));
+        assertEquals(Xmp.State.Unloaded, xmp.getPlayerState());
+
+        // new instance reads entry written by first one, context isn't used
+        XmpScanCache reopened = new XmpScanCache(directory);
+        Xmp.Sequence[] cached = reopened.getSequences(null, file, md5);
+        assertEquals(1, reopened.getHitCount());
+        assertEquals(0, reopened.getMissCount());
+        assertEquals(loaded.length, cached.length);
+        for(int i = 0; i < loaded.length; i++) {
+            assertEquals(loaded[i].getEntryPoint(), cached[i].getEntryPoint());
+            assertEquals(loaded[i].getDuration(), cached[i].getDuration());
+        }
+    }
+
+    @Test
+    public void putStoresLoadedModuleWithoutRescan() throws Exception {
+        byte[] module = TestModules.generate("loaded", 1);
+        byte[] md5 = MessageDigest.getInstance("MD5").digest(module);
+        XmpScanCache cache = new XmpScanCache(directory);
+
+        xmp.loadModule(module);
+        Xmp.Sequence[] stored = cache.put(md5, xmp);
+        assertEquals(xmp.getModuleInfo().getSequenceCount(), stored.length);
+
+        Xmp.Sequence[] cached = cache.getCached(md5);
+        assertEquals(stored.length, cached.length);
+        assertEquals(stored[0].getDuration(), cached[0].getDuration());
+        assertEquals(1, cache.getHitCount());
+    }
+}